@@ -0,0 +1,229 @@
+package DataTypes;
+
+import java.util.*;
+
+/**
+ * The receiving half of an AAL5 style segmentation and reassembly layer.  Cells are put
+ * back together into packets per VC: the cell carrying the IP header starts a packet, and
+ * the cell with the end of frame bit set finishes it.  A packet is delivered if every one
+ * of its cells arrived, otherwise it is counted as corrupted (i.e. PPD cut its tail off).
+ * Packets that never see their end of frame are thrown away after a timeout.
+ *
+ * The reassembly state for every VC lives in a set of primitive arrays indexed by VC that
+ * are allocated up front (and only grown if a VC beyond them shows up), so thousands of
+ * VCs reassembling at once don't create any garbage.  Something whose VC numbers are only
+ * unique per port (a router) numbers the channels itself and passes the channel in with
+ * each cell.
+ */
+public class AAL5Reassembler {
+	private int timeout = 50; // the number of time units a packet has to finish reassembling
+
+	/*per VC reassembly state, indexed by VC*/
+	private int[] expectedCells; // the number of cells the packet on the VC was split into (0 if not reassembling)
+	private int[] receivedCells; // the number of cells of the packet that have arrived
+	private int[] packetBits; // the size of the packet being reassembled (from its header)
+	private int[] startTime; // when the header of the packet arrived
+	private int[] activePos; // where the VC is in activeVCs (-1 if it isn't reassembling)
+
+	/*the VCs that are currently reassembling a packet, so timeouts don't have to look at every VC*/
+	private int[] activeVCs;
+	private int numActive = 0;
+
+	/*packet level counters*/
+	private long packetsDelivered = 0; // packets that arrived whole
+	private long bitsDelivered = 0; // the size of all the packets that arrived whole
+	private long packetsCorrupted = 0; // packets that finished with cells missing
+	private long packetsTimedOut = 0; // packets that never saw their end of frame
+	private long cellsDiscarded = 0; // cells that arrived without a packet to go in (the header was lost)
+
+	/**
+	 * Creates a reassembler with room for VCs 0-1023 (it grows if it needs to)
+	 */
+	public AAL5Reassembler(){
+		this(1024);
+	}
+
+	/**
+	 * Creates a reassembler with room for a given number of VCs (it grows if it needs to)
+	 * @param numVCs the number of VCs to allocate reassembly state for
+	 */
+	public AAL5Reassembler(int numVCs){
+		this.expectedCells = new int[numVCs];
+		this.receivedCells = new int[numVCs];
+		this.packetBits = new int[numVCs];
+		this.startTime = new int[numVCs];
+		this.activePos = new int[numVCs];
+		this.activeVCs = new int[numVCs];
+		Arrays.fill(this.activePos, -1);
+	}
+
+	/**
+	 * Puts a data cell into the packet being reassembled on its VC
+	 * @param cell the cell that arrived
+	 * @param time the current time
+	 */
+	public void receiveCell(ATMCell cell, int time){
+		this.receiveCell(cell, cell.getVC(), time);
+	}
+
+	/**
+	 * Puts a data cell into the packet being reassembled on a channel
+	 * @param cell the cell that arrived
+	 * @param vc the channel the cell is reassembled on (a VC, or a number the caller gave
+	 * the port and VC the cell came in on)
+	 * @param time the current time
+	 */
+	public void receiveCell(ATMCell cell, int vc, int time){
+		IPPacket header = cell.getPacketData();
+
+		if(vc < 0)
+			return;
+		if(vc >= this.expectedCells.length)
+			this.grow(vc + 1);
+
+		// packets that have run out of time are thrown away before the cell is looked at
+		if(this.activePos[vc] != -1 && time - this.startTime[vc] > this.timeout){
+			this.packetsTimedOut++;
+			this.finish(vc);
+		}
+
+		if(header != null){
+			// a new header means the last packet on this VC lost its end of frame
+			if(this.activePos[vc] != -1){
+				this.packetsCorrupted++;
+				this.finish(vc);
+			}
+			this.expectedCells[vc] = Math.max(1, (header.getSize() + ATMCell.CELL_SIZE - 1) / ATMCell.CELL_SIZE);
+			this.receivedCells[vc] = 1;
+			this.packetBits[vc] = header.getSize();
+			this.startTime[vc] = time;
+			this.activePos[vc] = this.numActive;
+			this.activeVCs[this.numActive++] = vc;
+		}
+		else if(this.activePos[vc] != -1){
+			this.receivedCells[vc]++;
+		}
+		else{
+			// the header of this packet never made it, the cell has nowhere to go
+			this.cellsDiscarded++;
+			if(cell.isEndOfFrame())
+				this.packetsCorrupted++;
+			return;
+		}
+
+		if(cell.isEndOfFrame()){
+			if(this.receivedCells[vc] == this.expectedCells[vc]){
+				this.packetsDelivered++;
+				this.bitsDelivered += this.packetBits[vc];
+			}
+			else
+				this.packetsCorrupted++;
+			this.finish(vc);
+		}
+	}
+
+	/**
+	 * Throws away any packets that have been reassembling for longer than the timeout.
+	 * Only looks at the VCs that are reassembling something.
+	 * @param time the current time
+	 */
+	public void expire(int time){
+		for(int i = this.numActive - 1; i >= 0; i--){
+			int vc = this.activeVCs[i];
+			if(time - this.startTime[vc] > this.timeout){
+				this.packetsTimedOut++;
+				this.finish(vc);
+			}
+		}
+	}
+
+	/**
+	 * Clears the reassembly state of a VC so it can start on its next packet
+	 * @param vc the VC that is done reassembling
+	 */
+	private void finish(int vc){
+		int pos = this.activePos[vc];
+		int last = this.activeVCs[--this.numActive];
+
+		// move the last active VC into the hole this one leaves
+		this.activeVCs[pos] = last;
+		this.activePos[last] = pos;
+		this.activePos[vc] = -1;
+		this.expectedCells[vc] = 0;
+	}
+
+	/**
+	 * Makes room for more VCs.  Only happens when a VC beyond the current arrays shows up.
+	 * @param numVCs the number of VCs that need to fit
+	 */
+	private void grow(int numVCs){
+		int size = Math.max(numVCs, this.expectedCells.length * 2);
+		int oldSize = this.expectedCells.length;
+
+		this.expectedCells = Arrays.copyOf(this.expectedCells, size);
+		this.receivedCells = Arrays.copyOf(this.receivedCells, size);
+		this.packetBits = Arrays.copyOf(this.packetBits, size);
+		this.startTime = Arrays.copyOf(this.startTime, size);
+		this.activePos = Arrays.copyOf(this.activePos, size);
+		this.activeVCs = Arrays.copyOf(this.activeVCs, size);
+		Arrays.fill(this.activePos, oldSize, size, -1);
+	}
+
+	/**
+	 * Sets how long a packet has to finish reassembling before it is thrown away
+	 * @param timeout the timeout in time units
+	 */
+	public void setTimeout(int timeout){
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Returns the number of packets that arrived whole
+	 * @return the number of packets that arrived whole
+	 */
+	public long getPacketsDelivered(){
+		return this.packetsDelivered;
+	}
+
+	/**
+	 * Returns the total size of the packets that arrived whole (the goodput)
+	 * @return the total size of the packets that arrived whole (in bits)
+	 */
+	public long getBitsDelivered(){
+		return this.bitsDelivered;
+	}
+
+	/**
+	 * Returns the number of packets that finished reassembling with cells missing
+	 * @return the number of packets that finished reassembling with cells missing
+	 */
+	public long getPacketsCorrupted(){
+		return this.packetsCorrupted;
+	}
+
+	/**
+	 * Returns the number of packets that were thrown away because they never finished
+	 * @return the number of packets that were thrown away because they never finished
+	 */
+	public long getPacketsTimedOut(){
+		return this.packetsTimedOut;
+	}
+
+	/**
+	 * Returns the number of cells that arrived after their packet's header was lost
+	 * @return the number of cells that arrived after their packet's header was lost
+	 */
+	public long getCellsDiscarded(){
+		return this.cellsDiscarded;
+	}
+
+	/**
+	 * Returns the packet level counters as a String
+	 * @return the packet level counters as a String
+	 */
+	public String toString(){
+		return "delivered " + this.packetsDelivered + " packets (" + this.bitsDelivered + " bits), " +
+				this.packetsCorrupted + " corrupted, " + this.packetsTimedOut + " timed out, " +
+				this.cellsDiscarded + " orphan cells";
+	}
+}
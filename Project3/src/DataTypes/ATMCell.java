@@ -8,12 +8,33 @@
 package DataTypes;
 
 public class ATMCell {
-	private int vc = 0; // the vc the cell is on
+	private int vpi = 0; // the virtual path the cell is on (0 if the cell is switched on its vc alone)
+	private int vc = 0; // the vc the cell is on (the VCI, if the cell is on a virtual path)
 	private boolean isOAM=false; // says if the cell is OAM
+	private boolean endOfFrame=false; // says if this is the last cell of an AAL5 frame (IP packet)
+	private boolean clp=false; // the cell loss priority bit, set on cells that broke their connection's contract
 	private IPPacket packetData = null; // the IP packet header
-	private String data = ""; // The IP packet data (if there is no header)
+	private String data = ""; // OAM data in string form (legacy, see getOAMType())
+	private byte[] payload = null; // The buffer holding the IP packet data (if there is no header), may be shared
+	private int payloadOffset = 0; // Where this cell's data starts in the payload buffer
+	private int payloadLength = 0; // The number of bytes of IP packet data in this cell
 	private int traceID = 0; // The trace ID for the cell
+	private OAMType oamType = null; // The signal carried by this cell (if it is OAM)
+	private int oamDest = -1; // The destination address that goes with the signal (or -1)
+	private int oamVC = -1; // The VC that goes with the signal (or -1)
+	private int oamCallRef = 0; // The call reference the signal belongs to (0 if there isn't one)
+	private boolean oamDecoded = false; // has the string form of the signal been decoded yet?
+	private TrafficDescriptor oamTraffic = null; // The traffic contract requested by a SETUP (null if there isn't one)
+	private ReleaseCause oamCause = null; // Why a connection was refused, for a RELEASE (null if there isn't one)
+	private int[] oamDTL = null; // The designated transit list of a source routed SETUP (null if it is routed hop by hop)
+	private int oamDTLIndex = 0; // Where the next hop is in the designated transit list
+	private int oamCrankbackFrom = -1; // The router before the link a source routed SETUP was blocked at (or -1)
+	private int oamCrankbackTo = -1; // The router after the link a source routed SETUP was blocked at (or -1)
+	private boolean oamEndToEnd = false; // is an F5 cell for the whole connection, rather than one link of it?
+	private boolean oamLoopback = true; // is an F5 loopback still on its way out (rather than looped back)?
 	public static int CELL_SIZE = 48*8; //the size of the data field of an ATM cell(in bits)
+	public static final int PAYLOAD_BYTES = 48; //the size of the data field of an ATM cell(in bytes)
+	private static final byte[] FILLER = new byte[PAYLOAD_BYTES]; // shared payload for cells that only carry dummy data
 	
 	/**
 	 * Constructor for an ATM cell when there is IP header data
@@ -41,6 +62,67 @@ public class ATMCell {
 		this.traceID = traceID;
 	}
 	
+	/**
+	 * Constructor for a data cell that carries dummy data from the ip packet.  No buffer is
+	 * allocated, the cell shares one read only filler buffer with every other such cell.
+	 * @param vc the vc to send this cell on
+	 * @param payloadLength the number of bytes of packet data in the cell (at most PAYLOAD_BYTES)
+	 * @param traceID the trace ID of the cell
+	 */
+	public ATMCell(int vc, int payloadLength, int traceID){
+		this(vc, FILLER, 0, payloadLength, traceID);
+	}
+	
+	/**
+	 * Constructor for a data cell that carries a slice of a buffer holding the ip packet data.
+	 * The buffer is not copied, so it must not be changed while the cell is in the network.
+	 * @param vc the vc to send this cell on
+	 * @param payload the buffer holding the packet data
+	 * @param offset where this cell's data starts in the buffer
+	 * @param length the number of bytes of packet data in the cell (at most PAYLOAD_BYTES)
+	 * @param traceID the trace ID of the cell
+	 */
+	public ATMCell(int vc, byte[] payload, int offset, int length, int traceID){
+		this.vc = vc;
+		this.payload = payload;
+		this.payloadOffset = offset;
+		this.payloadLength = Math.min(length, PAYLOAD_BYTES);
+		this.traceID = traceID;
+	}
+	
+	/**
+	 * Constructor for an OAM cell carrying a signal
+	 * @param vc the vc to send this cell on
+	 * @param signal the signal this cell carries
+	 * @param dest the destination address that goes with the signal (-1 if there isn't one)
+	 * @param signalVC the VC that goes with the signal (-1 if there isn't one)
+	 * @param traceID the trace ID of the cell
+	 */
+	public ATMCell(int vc, OAMType signal, int dest, int signalVC, int traceID){
+		this.vc = vc;
+		this.isOAM = true;
+		this.oamType = signal;
+		this.oamDest = dest;
+		this.oamVC = signalVC;
+		this.oamDecoded = true;
+		this.traceID = traceID;
+	}
+	
+	/**
+	 * Makes a copy of this data cell for another branch of a point to multipoint connection.
+	 * Only the header is new, the copy shares this cell's payload buffer and IP header.
+	 * @return the copy of the cell
+	 */
+	public ATMCell replicate(){
+		ATMCell copy = new ATMCell(this.vc, this.payload, this.payloadOffset, this.payloadLength, this.traceID);
+		
+		copy.vpi = this.vpi;
+		copy.packetData = this.packetData;
+		copy.endOfFrame = this.endOfFrame;
+		copy.clp = this.clp;
+		return copy;
+	}
+	
 	/**
 	 * Returns the IP packet header data contained in this cell (or null if there isn't a header)
 	 * @return the IP packet header data contained in this cell (or null if there isn't a header)
@@ -59,6 +141,30 @@ public class ATMCell {
 		return this.data;
 	}
 	
+	/**
+	 * Returns the buffer holding this cell's packet data (shared, do not modify)
+	 * @return the buffer holding this cell's packet data, or null if the cell carries none
+	 */
+	public byte[] getPayload(){
+		return this.payload;
+	}
+	
+	/**
+	 * Returns where this cell's packet data starts in the payload buffer
+	 * @return where this cell's packet data starts in the payload buffer
+	 */
+	public int getPayloadOffset(){
+		return this.payloadOffset;
+	}
+	
+	/**
+	 * Returns the number of bytes of packet data in this cell
+	 * @return the number of bytes of packet data in this cell
+	 */
+	public int getPayloadLength(){
+		return this.payloadLength;
+	}
+	
 	/**
 	 * Sets if this cell contains OAM information or data
 	 * @param isOAM if true the cell contains OAM
@@ -77,6 +183,39 @@ public class ATMCell {
 		return this.isOAM;
 	}
 	
+	/**
+	 * Sets if this cell is the last cell of an IP packet (the AAL5 end of frame bit)
+	 * @param endOfFrame if true the cell is the last cell of its packet
+	 */
+	public void setEndOfFrame(boolean endOfFrame){
+		this.endOfFrame = endOfFrame;
+	}
+	
+	/**
+	 * Gets if this cell is the last cell of an IP packet (the AAL5 end of frame bit)
+	 * @return true if this cell is the last cell of its packet
+	 */
+	public boolean isEndOfFrame(){
+		return this.endOfFrame;
+	}
+	
+	/**
+	 * Sets the cell loss priority bit.  Cells with CLP=1 are the first to be dropped when
+	 * a buffer fills up.
+	 * @param clp true if the cell should be dropped first
+	 */
+	public void setCLP(boolean clp){
+		this.clp = clp;
+	}
+	
+	/**
+	 * Gets the cell loss priority bit
+	 * @return true if the cell should be dropped first (CLP=1)
+	 */
+	public boolean getCLP(){
+		return this.clp;
+	}
+	
 	/**
 	 * Returns the VC that this cell is sent on
 	 * @return the VC that this cell is sent on
@@ -95,6 +234,246 @@ public class ATMCell {
 		this.vc = vc;
 	}
 	
+	/**
+	 * Returns the virtual path that this cell is sent on
+	 * @return the VPI of the cell, 0 if the cell isn't on a virtual path
+	 */
+	public int getVPI(){
+		return this.vpi;
+	}
+	
+	/**
+	 * Sets the virtual path that this cell is on
+	 * @param vpi the new VPI of the cell (0 to take it off its virtual path)
+	 */
+	public void setVPI(int vpi){
+		this.vpi = vpi;
+	}
+	
+	/**
+	 * Returns the signal carried by this OAM cell
+	 * @return the signal carried by this cell, or null if it isn't a known signal
+	 */
+	public OAMType getOAMType(){
+		this.decodeOAM();
+		return this.oamType;
+	}
+	
+	/**
+	 * Returns the destination address that goes with the signal in this cell
+	 * @return the destination address that goes with the signal, or -1 if there isn't one
+	 */
+	public int getOAMDest(){
+		this.decodeOAM();
+		return this.oamDest;
+	}
+	
+	/**
+	 * Returns the VC that goes with the signal in this cell
+	 * @return the VC that goes with the signal, or -1 if there isn't one
+	 */
+	public int getOAMVC(){
+		this.decodeOAM();
+		return this.oamVC;
+	}
+	
+	/**
+	 * Returns the call reference that the signal in this cell belongs to
+	 * @return the call reference of the signal, or 0 if there isn't one
+	 */
+	public int getOAMCallRef(){
+		return this.oamCallRef;
+	}
+	
+	/**
+	 * Sets the call reference that the signal in this cell belongs to.  Each hop picks
+	 * its own call references, so that it can match connects and waits to its setups.
+	 * @param callRef the call reference of the signal
+	 */
+	public void setOAMCallRef(int callRef){
+		this.oamCallRef = callRef;
+	}
+	
+	/**
+	 * Returns the traffic contract requested by the SETUP in this cell
+	 * @return the traffic contract of the connection being set up (best effort if none was given)
+	 */
+	public TrafficDescriptor getOAMTraffic(){
+		if(this.oamTraffic == null)
+			return TrafficDescriptor.BEST_EFFORT;
+		return this.oamTraffic;
+	}
+	
+	/**
+	 * Sets the traffic contract requested by the SETUP in this cell
+	 * @param traffic the traffic contract of the connection being set up
+	 */
+	public void setOAMTraffic(TrafficDescriptor traffic){
+		this.oamTraffic = traffic;
+	}
+	
+	/**
+	 * Returns why the connection was refused, for a RELEASE signal
+	 * @return the cause of the release (UNSPECIFIED if none was given)
+	 */
+	public ReleaseCause getOAMCause(){
+		if(this.oamCause == null)
+			return ReleaseCause.UNSPECIFIED;
+		return this.oamCause;
+	}
+	
+	/**
+	 * Sets why the connection was refused, for a RELEASE signal
+	 * @param cause the cause of the release
+	 */
+	public void setOAMCause(ReleaseCause cause){
+		this.oamCause = cause;
+	}
+	
+	/**
+	 * Returns the designated transit list of a source routed SETUP: the addresses of the
+	 * routers on the path, in order, ending with the destination
+	 * @return the designated transit list, or null if the SETUP is routed hop by hop
+	 */
+	public int[] getOAMDTL(){
+		return this.oamDTL;
+	}
+	
+	/**
+	 * Returns where the next hop is in the designated transit list of a source routed SETUP
+	 * @return the index of the next hop in the designated transit list
+	 */
+	public int getOAMDTLIndex(){
+		return this.oamDTLIndex;
+	}
+	
+	/**
+	 * Sets the designated transit list of a source routed SETUP.  The list is never changed,
+	 * so every hop's SETUP shares it and only moves the index along.
+	 * @param dtl the addresses of the routers on the path, ending with the destination
+	 * @param index the index of the next hop in the list
+	 */
+	public void setOAMDTL(int[] dtl, int index){
+		this.oamDTL = dtl;
+		this.oamDTLIndex = index;
+	}
+	
+	/**
+	 * Returns the router before the link a source routed SETUP was blocked at, for a RELEASE
+	 * @return the address of the router, or -1 if this isn't a crankback
+	 */
+	public int getOAMCrankbackFrom(){
+		return this.oamCrankbackFrom;
+	}
+	
+	/**
+	 * Returns the router after the link a source routed SETUP was blocked at, for a RELEASE
+	 * @return the address of the router, or -1 if this isn't a crankback
+	 */
+	public int getOAMCrankbackTo(){
+		return this.oamCrankbackTo;
+	}
+	
+	/**
+	 * Sets the link a source routed SETUP was blocked at, so the RELEASE can crank back
+	 * to the router that built the path and have it try another one
+	 * @param from the address of the router before the link
+	 * @param to the address of the router after the link
+	 */
+	public void setOAMCrankback(int from, int to){
+		this.oamCrankbackFrom = from;
+		this.oamCrankbackTo = to;
+	}
+	
+	/**
+	 * Says if an F5 cell (loopback or continuity check) is for the whole connection
+	 * @return true for an end to end cell, false for a segment (one link) cell
+	 */
+	public boolean isOAMEndToEnd(){
+		return this.oamEndToEnd;
+	}
+	
+	/**
+	 * Sets if an F5 cell is for the whole connection or for one link of it
+	 * @param endToEnd true for an end to end cell, false for a segment cell
+	 */
+	public void setOAMEndToEnd(boolean endToEnd){
+		this.oamEndToEnd = endToEnd;
+	}
+	
+	/**
+	 * Returns the loopback indication of an F5 loopback
+	 * @return true if the loopback is on its way out, false once it has been looped back
+	 */
+	public boolean getOAMLoopback(){
+		return this.oamLoopback;
+	}
+	
+	/**
+	 * Sets the loopback indication of an F5 loopback.  The end that loops the cell back clears it.
+	 * @param loopback true if the loopback is on its way out, false once it has been looped back
+	 */
+	public void setOAMLoopback(boolean loopback){
+		this.oamLoopback = loopback;
+	}
+	
+	/**
+	 * Compatibility decoder for OAM cells that were built with the old string form of the
+	 * signals ("setup 5", "connect ack", ...).  The string is only looked at once, the
+	 * result is kept in the typed fields.
+	 */
+	private void decodeOAM(){
+		if(this.oamDecoded)
+			return;
+		this.oamDecoded = true;
+		if(!this.isOAM || this.data == null)
+			return;
+		
+		if(this.data.contains("setup")){
+			this.oamType = OAMType.SETUP;
+			this.oamDest = intFromEndOfData();
+		}
+		else if(this.data.contains("call proceeding"))
+			this.oamType = OAMType.CALL_PROCEEDING;
+		else if(this.data.contains("wait")){
+			this.oamType = OAMType.WAIT;
+			this.oamDest = intFromEndOfData();
+		}
+		else if(this.data.contains("connect")){
+			if(this.data.contains("ack")) this.oamType = OAMType.CONNECT_ACK;
+			else{
+				this.oamType = OAMType.CONNECT;
+				this.oamVC = intFromEndOfData();
+			}
+		}
+		else if(this.data.contains("end")){
+			if(this.data.contains("ack")) this.oamType = OAMType.END_ACK;
+			else{
+				this.oamType = OAMType.END;
+				this.oamVC = intFromEndOfData();
+			}
+		}
+	}
+	
+	/**
+	 * Gets the number from the end of the data string
+	 * @return the number from the end of the data string, or -1 if the string doesn't end in a number
+	 */
+	private int intFromEndOfData(){
+		int start = this.data.length();
+		
+		while(start > 0 && Character.isDigit(this.data.charAt(start-1)))
+			start--;
+		if(start == this.data.length() || (start > 0 && this.data.charAt(start-1) != ' '))
+			return -1;
+		try{
+			return Integer.parseInt(this.data.substring(start));
+		}
+		catch(NumberFormatException e){
+			return -1;
+		}
+	}
+	
 	/**
 	 * Returns the trace ID for this cell
 	 * @return the trace ID for this cell
@@ -0,0 +1,99 @@
+package DataTypes;
+
+/**
+ * A fixed size ring buffer of cells.  Cells are added at the tail and taken from the head,
+ * and the most recently added cell can be taken back off the tail, all in constant time.
+ */
+public class CellRing {
+	private ATMCell[] cells; // the slots of the ring
+	private int head = 0; // the slot holding the oldest cell
+	private int size = 0; // the number of cells in the ring
+
+	/**
+	 * Creates an empty ring
+	 * @param capacity the number of cells the ring can hold
+	 */
+	public CellRing(int capacity){
+		this.cells = new ATMCell[Math.max(1, capacity)];
+	}
+
+	/**
+	 * Adds a cell at the tail of the ring
+	 * @param cell the cell to be added
+	 * @return true if the cell was added, false if the ring is full
+	 */
+	public boolean add(ATMCell cell){
+		if(this.size == this.cells.length)
+			return false;
+		this.cells[(this.head + this.size) % this.cells.length] = cell;
+		this.size++;
+		return true;
+	}
+
+	/**
+	 * Takes the cell at the head of the ring (the oldest one)
+	 * @return the oldest cell, or null if the ring is empty
+	 */
+	public ATMCell poll(){
+		ATMCell cell;
+
+		if(this.size == 0)
+			return null;
+		cell = this.cells[this.head];
+		this.cells[this.head] = null;
+		this.head = (this.head + 1) % this.cells.length;
+		this.size--;
+		return cell;
+	}
+
+	/**
+	 * Returns the cell at the head of the ring without taking it
+	 * @return the oldest cell, or null if the ring is empty
+	 */
+	public ATMCell peek(){
+		if(this.size == 0)
+			return null;
+		return this.cells[this.head];
+	}
+
+	/**
+	 * Takes the cell at the tail of the ring (the newest one)
+	 * @return the newest cell, or null if the ring is empty
+	 */
+	public ATMCell removeLast(){
+		int tail;
+		ATMCell cell;
+
+		if(this.size == 0)
+			return null;
+		tail = (this.head + this.size - 1) % this.cells.length;
+		cell = this.cells[tail];
+		this.cells[tail] = null;
+		this.size--;
+		return cell;
+	}
+
+	/**
+	 * Returns the number of cells in the ring
+	 * @return the number of cells in the ring
+	 */
+	public int size(){
+		return this.size;
+	}
+
+	/**
+	 * Returns whether or not the ring is empty
+	 * @return true if there are no cells in the ring
+	 */
+	public boolean isEmpty(){
+		return this.size == 0;
+	}
+
+	/**
+	 * Returns the number of cells the ring can hold
+	 * @return the number of cells the ring can hold
+	 */
+	public int capacity(){
+		return this.cells.length;
+	}
+}
@@ -0,0 +1,286 @@
+package DataTypes;
+
+import java.util.*;
+
+/**
+ * Queues data cells per VC and decides which cell goes out next.  VCs are grouped by their
+ * service category, and the categories are served in strict priority (CBR, rt-VBR, nrt-VBR, 
+ * then UBR).  CBR and VBR VCs are spaced out at their service rate: each of those categories
+ * keeps a heap of its backlogged VCs ordered by the time the VC's next cell is due.  UBR VCs
+ * share the rest with deficit round robin, weighted by their peak cell rate.  If no CBR or
+ * VBR cell is due and there is no UBR traffic, the earliest CBR/VBR cell goes anyway so the
+ * link is never left idle.
+ *
+ * Adding a cell is O(1) (O(log n) the first time a VC backs up), picking the next cell is
+ * O(log n) for CBR/VBR and O(1) for UBR, where n is the number of backlogged VCs.
+ *
+ * A virtual path is scheduled as a single connection: cells with a VPI go in the queue
+ * opened for their virtual path, whatever VC they are on.
+ */
+public class CellScheduler {
+	private int perVCCapacity; // the number of cells each VC's queue can hold
+	private VCQueue[] byVC = new VCQueue[64]; // the queue for each VC that has been opened, indexed by VC
+	private VCQueue[] byVP = new VCQueue[0]; // the queue for each virtual path that has been opened, indexed by VPI
+	private VCQueue unopened; // where cells on VCs that were never opened go (UBR, weight 1)
+	private PriorityQueue<VCQueue> cbr = new PriorityQueue<VCQueue>(); // backlogged CBR VCs by due time
+	private PriorityQueue<VCQueue> rtVBR = new PriorityQueue<VCQueue>(); // backlogged rt-VBR VCs by due time
+	private PriorityQueue<VCQueue> nrtVBR = new PriorityQueue<VCQueue>(); // backlogged nrt-VBR VCs by due time
+	private ArrayDeque<VCQueue> ubr = new ArrayDeque<VCQueue>(); // backlogged UBR VCs in round robin order
+	private int size = 0; // the number of cells queued
+
+	/**
+	 * Creates an empty scheduler
+	 * @param perVCCapacity the number of cells a single VC can have queued
+	 */
+	public CellScheduler(int perVCCapacity){
+		this.perVCCapacity = perVCCapacity;
+		this.unopened = new VCQueue(TrafficDescriptor.BEST_EFFORT, perVCCapacity);
+	}
+
+	/**
+	 * Opens a queue for a VC
+	 * @param vc the VC
+	 * @param traffic the traffic contract of the VC, which picks its service category and rate
+	 */
+	public void open(int vc, TrafficDescriptor traffic){
+		if(vc < 0)
+			return;
+		if(vc >= this.byVC.length)
+			this.byVC = Arrays.copyOf(this.byVC, Math.max(vc + 1, this.byVC.length * 2));
+		this.byVC[vc] = new VCQueue(traffic, this.perVCCapacity);
+	}
+
+	/**
+	 * Closes the queue for a VC.  Cells already in the queue are still sent.
+	 * @param vc the VC
+	 */
+	public void close(int vc){
+		if(vc >= 0 && vc < this.byVC.length)
+			this.byVC[vc] = null;
+	}
+
+	/**
+	 * Opens a queue for a virtual path
+	 * @param vpi the VPI of the virtual path
+	 * @param traffic the traffic contract of the whole virtual path
+	 */
+	public void openVP(int vpi, TrafficDescriptor traffic){
+		if(vpi <= 0)
+			return;
+		if(vpi >= this.byVP.length)
+			this.byVP = Arrays.copyOf(this.byVP, Math.max(vpi + 1, this.byVP.length * 2));
+		this.byVP[vpi] = new VCQueue(traffic, this.perVCCapacity);
+	}
+
+	/**
+	 * Returns the traffic contract of a VC
+	 * @param vc the VC
+	 * @return the traffic contract the VC was opened with, or null if it isn't open
+	 */
+	public TrafficDescriptor getTraffic(int vc){
+		if(vc >= 0 && vc < this.byVC.length && this.byVC[vc] != null)
+			return this.byVC[vc].traffic;
+		return null;
+	}
+
+	/**
+	 * Queues a cell on its VC's queue
+	 * @param cell the cell to be queued
+	 * @return true if the cell was queued, false if its VC's queue is full
+	 */
+	public boolean add(ATMCell cell){
+		int vc = cell.getVC(), vpi = cell.getVPI();
+		VCQueue q = this.unopened;
+
+		if(vpi != 0){
+			if(vpi > 0 && vpi < this.byVP.length && this.byVP[vpi] != null)
+				q = this.byVP[vpi];
+		}
+		else if(vc >= 0 && vc < this.byVC.length && this.byVC[vc] != null)
+			q = this.byVC[vc];
+		if(!q.cells.add(cell))
+			return false;
+		this.size++;
+
+		if(!q.backlogged){
+			q.backlogged = true;
+			if(q.category == ServiceCategory.UBR){
+				q.deficit = q.quantum;
+				this.ubr.addLast(q);
+			}
+			else
+				this.heapFor(q.category).add(q);
+		}
+		return true;
+	}
+
+	/**
+	 * Takes the next cell to be sent
+	 * @param now the current time, used to decide which CBR and VBR cells are due
+	 * @return the next cell to be sent, or null if nothing is queued
+	 */
+	public ATMCell next(double now){
+		if(this.size == 0)
+			return null;
+
+		// CBR and VBR cells that are due go first, in priority order
+		if(isDue(this.cbr, now)) return this.serveRate(this.cbr, now);
+		if(isDue(this.rtVBR, now)) return this.serveRate(this.rtVBR, now);
+		if(isDue(this.nrtVBR, now)) return this.serveRate(this.nrtVBR, now);
+
+		// then UBR gets its turn
+		if(!this.ubr.isEmpty()) return this.serveUBR();
+
+		// nothing else wants the link, so send CBR/VBR cells early rather than idle
+		if(!this.cbr.isEmpty()) return this.serveRate(this.cbr, now);
+		if(!this.rtVBR.isEmpty()) return this.serveRate(this.rtVBR, now);
+		return this.serveRate(this.nrtVBR, now);
+	}
+
+	/**
+	 * Takes back the most recently queued cell of the lowest priority backlogged VC.  Used to
+	 * make room when the buffer is full.
+	 * @return the cell that was taken back, or null if nothing is queued
+	 */
+	public ATMCell removeNewest(){
+		VCQueue q;
+		ATMCell cell;
+
+		if(!this.ubr.isEmpty()){
+			q = this.ubr.peekLast();
+			cell = q.cells.removeLast();
+			if(q.cells.isEmpty()){
+				this.ubr.pollLast();
+				q.backlogged = false;
+			}
+			this.size--;
+			return cell;
+		}
+		if(!this.nrtVBR.isEmpty()) return this.removeNewest(this.nrtVBR);
+		if(!this.rtVBR.isEmpty()) return this.removeNewest(this.rtVBR);
+		if(!this.cbr.isEmpty()) return this.removeNewest(this.cbr);
+		return null;
+	}
+
+	/**
+	 * Takes back the most recently queued cell of the VC at the top of a heap
+	 * @param heap the heap of backlogged VCs
+	 * @return the cell that was taken back
+	 */
+	private ATMCell removeNewest(PriorityQueue<VCQueue> heap){
+		VCQueue q = heap.peek();
+		ATMCell cell = q.cells.removeLast();
+
+		if(q.cells.isEmpty()){
+			heap.poll();
+			q.backlogged = false;
+		}
+		this.size--;
+		return cell;
+	}
+
+	/**
+	 * Returns whether the VC at the top of a heap has a cell that is due
+	 * @param heap the heap of backlogged VCs
+	 * @param now the current time
+	 * @return true if a cell from the heap is due
+	 */
+	private static boolean isDue(PriorityQueue<VCQueue> heap, double now){
+		return !heap.isEmpty() && heap.peek().nextDue <= now;
+	}
+
+	/**
+	 * Sends a cell from the VC at the top of a heap and works out when its next cell is due
+	 * @param heap the heap of backlogged VCs
+	 * @param now the current time
+	 * @return the cell to be sent
+	 */
+	private ATMCell serveRate(PriorityQueue<VCQueue> heap, double now){
+		VCQueue q = heap.poll();
+		ATMCell cell = q.cells.poll();
+
+		q.nextDue = Math.max(q.nextDue, now) + q.interval;
+		if(q.cells.isEmpty())
+			q.backlogged = false;
+		else
+			heap.add(q);
+		this.size--;
+		return cell;
+	}
+
+	/**
+	 * Sends a cell from the UBR VC whose turn it is.  A VC keeps its turn until it has sent
+	 * its quantum of cells (or runs out of cells).
+	 * @return the cell to be sent
+	 */
+	private ATMCell serveUBR(){
+		VCQueue q = this.ubr.peekFirst();
+		ATMCell cell = q.cells.poll();
+
+		q.deficit--;
+		if(q.cells.isEmpty()){
+			this.ubr.pollFirst();
+			q.backlogged = false;
+		}
+		else if(q.deficit <= 0){
+			this.ubr.pollFirst();
+			q.deficit = q.quantum;
+			this.ubr.addLast(q);
+		}
+		this.size--;
+		return cell;
+	}
+
+	/**
+	 * Returns the heap that holds the backlogged VCs of a rate based category
+	 * @param category CBR, RT_VBR or NRT_VBR
+	 * @return the heap for the category
+	 */
+	private PriorityQueue<VCQueue> heapFor(ServiceCategory category){
+		if(category == ServiceCategory.CBR) return this.cbr;
+		if(category == ServiceCategory.RT_VBR) return this.rtVBR;
+		return this.nrtVBR;
+	}
+
+	/**
+	 * Returns the number of cells queued
+	 * @return the number of cells queued
+	 */
+	public int size(){
+		return this.size;
+	}
+
+	/**
+	 * Returns whether or not any cells are queued
+	 * @return true if no cells are queued
+	 */
+	public boolean isEmpty(){
+		return this.size == 0;
+	}
+
+	/**
+	 * The queue of a single VC, along with its scheduling state
+	 */
+	private class VCQueue implements Comparable<VCQueue>{
+		TrafficDescriptor traffic; // the traffic contract of the VC
+		ServiceCategory category; // the service category of the VC
+		CellRing cells; // the cells waiting to be sent
+		double interval; // the time between cells at the VC's service rate (CBR/VBR)
+		double nextDue = 0; // when the VC's next cell is due (CBR/VBR)
+		int quantum; // the number of cells the VC sends per round (UBR)
+		int deficit; // the number of cells the VC has left to send this round (UBR)
+		boolean backlogged = false; // is the VC in its category's heap or round robin list?
+
+		VCQueue(TrafficDescriptor traffic, int capacity){
+			this.traffic = traffic;
+			this.category = traffic.getCategory();
+			this.cells = new CellRing(capacity);
+			this.interval = traffic.getServiceRate() > 0 ? 1.0 / traffic.getServiceRate() : 0;
+			this.quantum = Math.max(1, (int) Math.round(traffic.getPCR()));
+		}
+
+		public int compareTo(VCQueue o){
+			return Double.compare(this.nextDue, o.nextDue);
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package DataTypes;
+
+import java.util.*;
+
+/**
+ * Usage parameter control for the VCs coming into a nic.  Each policed VC is checked against
+ * its peak cell rate and its sustainable cell rate with the virtual scheduling form of the
+ * generic cell rate algorithm (GCRA): a cell conforms if it doesn't arrive more than the
+ * tolerance ahead of the theoretical arrival time (TAT) the contract allows.  Cells that
+ * don't conform are tagged (CLP=1) so they are the first to go when a buffer fills, or
+ * discarded outright.
+ *
+ * The only state that changes per cell is the two TATs of the VC.  They are only brought up
+ * to date when a cell on the VC arrives, so idle VCs cost nothing.  Time is kept in fixed
+ * point (TICK units per time unit) so the whole check is done with longs.
+ */
+public class GCRAPolicer {
+	public static final long TICK = 1L << 20; // the fixed point units in one time unit
+	private double cdvt = 1.0; // the cell delay variation tolerance on the peak rate (in time units)
+	private boolean discard = false; // discard cells that don't conform instead of tagging them?
+
+	/*conformance state, indexed by VC*/
+	private long[] tatPeak; // the theoretical arrival time of the next cell at the peak rate
+	private long[] tatSustain; // the theoretical arrival time of the next cell at the sustainable rate
+
+	/*contract parameters, indexed by VC (an increment of 0 means the VC isn't policed)*/
+	private long[] incPeak; // the time between cells at the peak rate
+	private long[] limitPeak; // how early a cell can be at the peak rate
+	private long[] incSustain; // the time between cells at the sustainable rate
+	private long[] limitSustain; // how early a cell can be at the sustainable rate (the burst tolerance)
+
+	/*counters*/
+	private long cellsConforming = 0; // cells that met their contract
+	private long cellsTagged = 0; // cells that were tagged with CLP=1
+	private long cellsDiscarded = 0; // cells that were thrown away
+
+	/**
+	 * Creates a policer with room for VCs 0-1023 (it grows if it needs to)
+	 */
+	public GCRAPolicer(){
+		this(1024);
+	}
+
+	/**
+	 * Creates a policer with room for a given number of VCs (it grows if it needs to)
+	 * @param numVCs the number of VCs to allocate policing state for
+	 */
+	public GCRAPolicer(int numVCs){
+		this.tatPeak = new long[numVCs];
+		this.tatSustain = new long[numVCs];
+		this.incPeak = new long[numVCs];
+		this.limitPeak = new long[numVCs];
+		this.incSustain = new long[numVCs];
+		this.limitSustain = new long[numVCs];
+	}
+
+	/**
+	 * Starts policing a VC against a traffic contract.  UBR connections make no promises
+	 * about their rate, so they are not policed.
+	 * @param vc the VC the connection's cells arrive on
+	 * @param traffic the traffic contract of the connection
+	 */
+	public void police(int vc, TrafficDescriptor traffic){
+		if(vc < 0)
+			return;
+		if(vc >= this.tatPeak.length)
+			this.grow(vc + 1);
+		if(traffic.getCategory() == ServiceCategory.UBR || traffic.getPCR() <= 0){
+			this.unpolice(vc);
+			return;
+		}
+
+		this.incPeak[vc] = (long) (TICK / traffic.getPCR());
+		this.limitPeak[vc] = (long) (TICK * this.cdvt);
+		if(traffic.getCategory() == ServiceCategory.CBR || traffic.getSCR() <= 0){
+			// CBR is only held to its peak rate
+			this.incSustain[vc] = 0;
+			this.limitSustain[vc] = 0;
+		}
+		else{
+			this.incSustain[vc] = (long) (TICK / traffic.getSCR());
+			// a burst of MBS cells at the peak rate is allowed
+			this.limitSustain[vc] = Math.max(0, (traffic.getMBS() - 1) * (this.incSustain[vc] - this.incPeak[vc])) +
+					this.limitPeak[vc];
+		}
+		this.tatPeak[vc] = 0;
+		this.tatSustain[vc] = 0;
+	}
+
+	/**
+	 * Stops policing a VC
+	 * @param vc the VC to stop policing
+	 */
+	public void unpolice(int vc){
+		if(vc < 0 || vc >= this.tatPeak.length)
+			return;
+		this.incPeak[vc] = 0;
+		this.incSustain[vc] = 0;
+	}
+
+	/**
+	 * Checks a cell against the contract of its VC.  Cells that don't conform are tagged
+	 * with CLP=1, or if the policer is set to discard, are reported as dropped.
+	 * @param cell the cell that arrived
+	 * @param time the time the cell arrived
+	 * @return true if the cell should be passed on, false if it should be discarded
+	 */
+	public boolean receiveCell(ATMCell cell, int time){
+		int vc = cell.getVC();
+		long t = time * TICK;
+
+		if(vc < 0 || vc >= this.tatPeak.length || this.incPeak[vc] == 0)
+			return true;
+
+		if(t < this.tatPeak[vc] - this.limitPeak[vc] ||
+				(this.incSustain[vc] != 0 && t < this.tatSustain[vc] - this.limitSustain[vc])){
+			// the cell is early, the TATs aren't moved for a cell that doesn't conform
+			if(this.discard){
+				this.cellsDiscarded++;
+				return false;
+			}
+			cell.setCLP(true);
+			this.cellsTagged++;
+			return true;
+		}
+
+		this.tatPeak[vc] = Math.max(t, this.tatPeak[vc]) + this.incPeak[vc];
+		if(this.incSustain[vc] != 0)
+			this.tatSustain[vc] = Math.max(t, this.tatSustain[vc]) + this.incSustain[vc];
+		this.cellsConforming++;
+		return true;
+	}
+
+	/**
+	 * Makes room for more VCs.  Only happens when a VC beyond the current arrays is policed.
+	 * @param numVCs the number of VCs that need to fit
+	 */
+	private void grow(int numVCs){
+		int size = Math.max(numVCs, this.tatPeak.length * 2);
+
+		this.tatPeak = Arrays.copyOf(this.tatPeak, size);
+		this.tatSustain = Arrays.copyOf(this.tatSustain, size);
+		this.incPeak = Arrays.copyOf(this.incPeak, size);
+		this.limitPeak = Arrays.copyOf(this.limitPeak, size);
+		this.incSustain = Arrays.copyOf(this.incSustain, size);
+		this.limitSustain = Arrays.copyOf(this.limitSustain, size);
+	}
+
+	/**
+	 * Sets the cell delay variation tolerance on the peak rate.  Only affects VCs policed after
+	 * it is set.  A tolerance of at least 1 lets a couple of cells through in the same time unit.
+	 * @param cdvt the tolerance in time units
+	 */
+	public void setCDVT(double cdvt){
+		this.cdvt = cdvt;
+	}
+
+	/**
+	 * Sets what happens to cells that don't conform
+	 * @param discard true to discard them, false to tag them with CLP=1
+	 */
+	public void setDiscard(boolean discard){
+		this.discard = discard;
+	}
+
+	/**
+	 * Returns the number of cells that met their contract
+	 * @return the number of cells that met their contract
+	 */
+	public long getCellsConforming(){
+		return this.cellsConforming;
+	}
+
+	/**
+	 * Returns the number of cells that were tagged with CLP=1
+	 * @return the number of cells that were tagged with CLP=1
+	 */
+	public long getCellsTagged(){
+		return this.cellsTagged;
+	}
+
+	/**
+	 * Returns the number of cells that were discarded
+	 * @return the number of cells that were discarded
+	 */
+	public long getCellsDiscarded(){
+		return this.cellsDiscarded;
+	}
+
+	/**
+	 * Returns the counters as a String
+	 * @return the counters as a String
+	 */
+	public String toString(){
+		return this.cellsConforming + " conforming, " + this.cellsTagged + " tagged, " +
+				this.cellsDiscarded + " discarded";
+	}
+}
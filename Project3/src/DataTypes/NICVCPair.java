@@ -58,6 +58,15 @@ public class NICVCPair implements Comparable<NICVCPair>{
 		return false;
 	}
 	
+	/**
+	 * Returns a hash code consistent with equals(), so that pairs can be used as keys in a hash map.
+	 * The nic is hashed on its ID rather than its identity, so hash maps iterate in the same order every run.
+	 * @return the hash code for this pair
+	 */
+	public int hashCode(){
+		return 31 * this.nic.getID() + this.vc;
+	}
+	
 	/**
 	 * Allows this object to be used in a TreeMap
 	 * @returns if this object is less than, equal to, or greater than a given object
@@ -0,0 +1,27 @@
+package DataTypes;
+
+/**
+ * The signals that can be carried in an OAM cell.  The destination address or VC that goes
+ * with a signal is carried in the cell as a plain int (see ATMCell.getOAMDest() and
+ * ATMCell.getOAMVC()).  The cause of a release is carried as a ReleaseCause (see 
+ * ATMCell.getOAMCause()).  The party signals carry both, the address of the party and the
+ * VC of the point to multipoint connection it is being added to or dropped from.
+ * The F5 signals (loopback and continuity check) aren't signaling, they travel on the VC
+ * of the connection they check, either across one link (segment) or end to end.
+ */
+public enum OAMType {
+	SETUP,           // "setup <dest. address>"
+	CALL_PROCEEDING, // "call proceeding"
+	WAIT,            // "wait <dest. address>"
+	CONNECT,         // "connect <vc number>"
+	CONNECT_ACK,     // "connect ack"
+	END,             // "end <vc number>"
+	END_ACK,         // "end ack"
+	RELEASE,         // "release <cause>"
+	ADD_PARTY,       // "add party <vc number> <dest. address>"
+	ADD_PARTY_ACK,   // "add party ack <vc number> <dest. address>"
+	ADD_PARTY_REJECT,// "add party reject <vc number> <dest. address> <cause>"
+	DROP_PARTY,      // "drop party <vc number> <dest. address>"
+	LOOPBACK,        // F5 loopback, sent back the way it came by the end of the segment or connection
+	CONTINUITY_CHECK // F5 continuity check, sent on a link when there are no cells to show the connection is alive
+}
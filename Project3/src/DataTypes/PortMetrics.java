@@ -0,0 +1,283 @@
+package DataTypes;
+
+import java.util.*;
+
+/**
+ * Counters for the output port of a nic: cells offered and lost per VC, OAM and data
+ * totals, how full the buffer was each time unit, and how many whole packets made it
+ * through (the goodput, which is what PPD and EPD are there to protect).
+ *
+ * The per VC counters are primitive arrays indexed by VC, grown only when a VC beyond them
+ * shows up.  A snapshot() is a copy of the counters that can be taken and read while the
+ * simulation keeps running.  A snapshot taken while the network is being stepped on other
+ * threads may mix counts from neighbouring time units.
+ */
+public class PortMetrics {
+	/*per VC counters, indexed by VC*/
+	private long[] cells; // data cells offered to the port
+	private long[] drops; // data cells the port lost (dropped on arrival or evicted)
+
+	/*per VC packet tracking, for the goodput*/
+	private boolean[] inPacket; // is a packet going through the port on the VC?
+	private boolean[] damaged; // has the packet on the VC lost a cell?
+	private int[] packetBits; // the size of the packet on the VC
+
+	/*totals*/
+	private long oamCells = 0, oamDrops = 0; // OAM cells offered and lost
+	private long dataCells = 0, dataDrops = 0; // data cells offered and lost
+	private long packetsForwarded = 0; // packets that went through without losing a cell
+	private long packetsLost = 0; // packets that lost at least one cell
+	private long bitsForwarded = 0; // the size of the packets that went through whole
+
+	private long[] occupancy; // the number of time units the data buffer held each number of cells
+
+	/**
+	 * Creates the counters for a port
+	 * @param bufferCells the size of the port's data buffer (the histogram has one more bucket)
+	 */
+	public PortMetrics(int bufferCells){
+		this(1024, bufferCells);
+	}
+
+	/**
+	 * Creates the counters for a port with room for a given number of VCs (they grow if they need to)
+	 * @param numVCs the number of VCs to allocate counters for
+	 * @param bufferCells the size of the port's data buffer
+	 */
+	public PortMetrics(int numVCs, int bufferCells){
+		this.cells = new long[numVCs];
+		this.drops = new long[numVCs];
+		this.inPacket = new boolean[numVCs];
+		this.damaged = new boolean[numVCs];
+		this.packetBits = new int[numVCs];
+		this.occupancy = new long[bufferCells + 1];
+	}
+
+	/**
+	 * Counts a cell arriving at the port, before it is admitted or dropped
+	 * @param cell the cell that arrived
+	 */
+	public void cellOffered(ATMCell cell){
+		int vc = cell.getVC();
+
+		if(cell.getIsOAM()){
+			this.oamCells++;
+			return;
+		}
+		this.dataCells++;
+		if(vc < 0)
+			return;
+		if(vc >= this.cells.length)
+			this.grow(vc + 1);
+		this.cells[vc]++;
+		if(cell.getPacketData() != null){
+			// a new header while a packet is still going through means the last one lost its tail
+			if(this.inPacket[vc])
+				this.packetsLost++;
+			this.inPacket[vc] = true;
+			this.damaged[vc] = false;
+			this.packetBits[vc] = cell.getPacketData().getSize();
+		}
+	}
+
+	/**
+	 * Counts a cell the port lost, either dropped on arrival or evicted from the buffer
+	 * @param cell the cell that was lost
+	 */
+	public void cellDropped(ATMCell cell){
+		int vc = cell.getVC();
+
+		if(cell.getIsOAM()){
+			this.oamDrops++;
+			return;
+		}
+		this.dataDrops++;
+		if(vc < 0 || vc >= this.drops.length)
+			return;
+		this.drops[vc]++;
+		this.damaged[vc] = true;
+	}
+
+	/**
+	 * Finishes counting a cell once the port has decided what to do with it.  If it ends a
+	 * packet, the packet is counted as forwarded or lost.
+	 * @param cell the cell that was admitted or dropped
+	 */
+	public void cellDone(ATMCell cell){
+		int vc = cell.getVC();
+
+		if(cell.getIsOAM() || !cell.isEndOfFrame() || vc < 0 || vc >= this.inPacket.length || !this.inPacket[vc])
+			return;
+		if(this.damaged[vc])
+			this.packetsLost++;
+		else{
+			this.packetsForwarded++;
+			this.bitsForwarded += this.packetBits[vc];
+		}
+		this.inPacket[vc] = false;
+	}
+
+	/**
+	 * Records how many data cells were in the buffer, once per time unit
+	 * @param cells the number of data cells in the buffer
+	 */
+	public void sampleOccupancy(int cells){
+		this.occupancy[Math.min(Math.max(cells, 0), this.occupancy.length - 1)]++;
+	}
+
+	/**
+	 * Makes room for more VCs
+	 * @param numVCs the number of VCs that need to fit
+	 */
+	private void grow(int numVCs){
+		int size = Math.max(numVCs, this.cells.length * 2);
+
+		this.cells = Arrays.copyOf(this.cells, size);
+		this.drops = Arrays.copyOf(this.drops, size);
+		this.inPacket = Arrays.copyOf(this.inPacket, size);
+		this.damaged = Arrays.copyOf(this.damaged, size);
+		this.packetBits = Arrays.copyOf(this.packetBits, size);
+	}
+
+	/**
+	 * Returns a copy of the counters as they are now.  Doesn't stop anything.
+	 * @return a copy of the counters
+	 */
+	public PortMetrics snapshot(){
+		PortMetrics copy = new PortMetrics(0, 0);
+
+		copy.cells = this.cells.clone();
+		copy.drops = this.drops.clone();
+		copy.inPacket = this.inPacket.clone();
+		copy.damaged = this.damaged.clone();
+		copy.packetBits = this.packetBits.clone();
+		copy.occupancy = this.occupancy.clone();
+		copy.oamCells = this.oamCells;
+		copy.oamDrops = this.oamDrops;
+		copy.dataCells = this.dataCells;
+		copy.dataDrops = this.dataDrops;
+		copy.packetsForwarded = this.packetsForwarded;
+		copy.packetsLost = this.packetsLost;
+		copy.bitsForwarded = this.bitsForwarded;
+		return copy;
+	}
+
+	/**
+	 * Returns the number of data cells offered to the port on a VC
+	 * @param vc the VC
+	 * @return the number of data cells offered on the VC
+	 */
+	public long getCells(int vc){
+		return vc >= 0 && vc < this.cells.length ? this.cells[vc] : 0;
+	}
+
+	/**
+	 * Returns the number of data cells the port lost on a VC
+	 * @param vc the VC
+	 * @return the number of data cells lost on the VC
+	 */
+	public long getDrops(int vc){
+		return vc >= 0 && vc < this.drops.length ? this.drops[vc] : 0;
+	}
+
+	/**
+	 * Returns the cell loss ratio on a VC
+	 * @param vc the VC
+	 * @return the fraction of the VC's data cells that were lost (0 if none were offered)
+	 */
+	public double getCellLossRatio(int vc){
+		long offered = this.getCells(vc);
+		return offered == 0 ? 0 : (double) this.getDrops(vc) / offered;
+	}
+
+	/**
+	 * Returns the number of OAM cells offered to the port
+	 * @return the number of OAM cells offered
+	 */
+	public long getOAMCells(){
+		return this.oamCells;
+	}
+
+	/**
+	 * Returns the number of OAM cells the port lost
+	 * @return the number of OAM cells lost
+	 */
+	public long getOAMDrops(){
+		return this.oamDrops;
+	}
+
+	/**
+	 * Returns the number of data cells offered to the port
+	 * @return the number of data cells offered
+	 */
+	public long getDataCells(){
+		return this.dataCells;
+	}
+
+	/**
+	 * Returns the number of data cells the port lost
+	 * @return the number of data cells lost
+	 */
+	public long getDataDrops(){
+		return this.dataDrops;
+	}
+
+	/**
+	 * Returns the number of packets that went through the port without losing a cell
+	 * @return the number of packets forwarded whole
+	 */
+	public long getPacketsForwarded(){
+		return this.packetsForwarded;
+	}
+
+	/**
+	 * Returns the number of packets that lost at least one cell at the port
+	 * @return the number of packets lost
+	 */
+	public long getPacketsLost(){
+		return this.packetsLost;
+	}
+
+	/**
+	 * Returns the size of the packets that went through the port whole (the goodput)
+	 * @return the goodput in bits
+	 */
+	public long getBitsForwarded(){
+		return this.bitsForwarded;
+	}
+
+	/**
+	 * Returns the buffer occupancy histogram.  Entry i is the number of time units the data
+	 * buffer held i cells (the last entry counts a full buffer).
+	 * @return a copy of the occupancy histogram
+	 */
+	public long[] getOccupancyHistogram(){
+		return this.occupancy.clone();
+	}
+
+	/**
+	 * Returns the per VC counters as comma separated values, one line per VC that has seen
+	 * a cell: vc,cells,drops,loss ratio
+	 * @return the per VC counters in CSV form
+	 */
+	public String toCSV(){
+		StringBuilder csv = new StringBuilder("vc,cells,drops,clr\n");
+
+		for(int vc = 0; vc < this.cells.length; vc++)
+			if(this.cells[vc] != 0)
+				csv.append(vc).append(',').append(this.cells[vc]).append(',').append(this.drops[vc])
+						.append(',').append(this.getCellLossRatio(vc)).append('\n');
+		return csv.toString();
+	}
+
+	/**
+	 * Returns the totals as a String
+	 * @return the totals as a String
+	 */
+	public String toString(){
+		return "data " + this.dataCells + " cells (" + this.dataDrops + " lost), OAM " + this.oamCells +
+				" cells (" + this.oamDrops + " lost), " + this.packetsForwarded + " packets forwarded (" +
+				this.bitsForwarded + " bits), " + this.packetsLost + " packets lost, occupancy " +
+				Arrays.toString(this.occupancy);
+	}
+}
@@ -0,0 +1,70 @@
+package DataTypes;
+
+import java.util.*;
+
+/**
+ * The one place randomness and IDs come from in a simulation, so a whole run can be
+ * repeated from a single seed.  Each component gets a deterministic ID from a counter per
+ * kind of component (the 3rd nic made is always nic 2), and its own stream of random numbers
+ * worked out from the seed, its kind and its ID.  A component's stream doesn't depend on how
+ * many numbers any other component has drawn, or on the order different kinds of components
+ * were made in.
+ *
+ * Set the seed before building a network: setSeed() also starts the ID counters again.
+ */
+public class RandomSource {
+	private static long seed = 1; // the seed the whole simulation is worked out from
+	private static HashMap<String, Integer> nextIDs = new HashMap<String, Integer>(); // the next ID for each kind of component
+
+	/**
+	 * Sets the seed for the simulation and starts the ID counters again
+	 * @param seed the seed the whole simulation is worked out from
+	 */
+	public static synchronized void setSeed(long seed){
+		RandomSource.seed = seed;
+		nextIDs.clear();
+	}
+
+	/**
+	 * Returns the seed for the simulation
+	 * @return the seed the whole simulation is worked out from
+	 */
+	public static synchronized long getSeed(){
+		return seed;
+	}
+
+	/**
+	 * Hands out the next ID for a kind of component
+	 * @param kind the kind of component (i.e. "nic" or "router")
+	 * @return the next ID for the kind, starting from 0
+	 */
+	public static synchronized int nextID(String kind){
+		Integer id = nextIDs.get(kind);
+
+		if(id == null)
+			id = 0;
+		nextIDs.put(kind, id + 1);
+		return id;
+	}
+
+	/**
+	 * Returns a stream of random numbers for a component
+	 * @param kind the kind of component, or what the numbers are for (i.e. "RED")
+	 * @param id the ID of the component
+	 * @return a random number generator seeded from the simulation seed, the kind and the ID
+	 */
+	public static synchronized Random stream(String kind, int id){
+		return new Random(mix(mix(seed + kind.hashCode()) + id));
+	}
+
+	/**
+	 * Scrambles a number so that nearby inputs give unrelated outputs (the SplitMix64 finalizer)
+	 * @param z the number to scramble
+	 * @return the scrambled number
+	 */
+	private static long mix(long z){
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
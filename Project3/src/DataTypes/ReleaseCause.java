@@ -0,0 +1,41 @@
+package DataTypes;
+
+/**
+ * The reason a connection was refused (or lost), carried in a RELEASE signal.  The codes are the
+ * ones the ATM UNI signalling uses for the same causes.
+ */
+public enum ReleaseCause {
+	NO_ROUTE(3),               // the destination isn't reachable from the router
+	NORMAL_CLEARING(16),       // the connection was cleared because it had no parties left
+	VC_UNAVAILABLE(35),        // no free VC was left for the connection
+	CELL_RATE_UNAVAILABLE(37), // a link on the path can't carry the connection's cell rate
+	TEMPORARY_FAILURE(41),     // the connection was lost after it was set up (OAM found the path broken)
+	TIMER_EXPIRY(102),         // nothing came back for the setup before its timer ran out
+	UNSPECIFIED(31);           // anything else
+
+	private int code; // the UNI cause code
+
+	ReleaseCause(int code){
+		this.code = code;
+	}
+
+	/**
+	 * Returns the UNI cause code for this cause
+	 * @return the UNI cause code
+	 */
+	public int getCode(){
+		return this.code;
+	}
+
+	/**
+	 * Returns the cause for a UNI cause code
+	 * @param code the UNI cause code
+	 * @return the cause, or UNSPECIFIED if the code isn't known
+	 */
+	public static ReleaseCause fromCode(int code){
+		for(ReleaseCause cause : values())
+			if(cause.code == code)
+				return cause;
+		return UNSPECIFIED;
+	}
+}
@@ -0,0 +1,11 @@
+package DataTypes;
+
+/**
+ * The ATM service categories, in the order they are served by a nic's cell scheduler.
+ */
+public enum ServiceCategory {
+	CBR,     // constant bit rate, served at its peak cell rate
+	RT_VBR,  // real time variable bit rate, served at its sustainable cell rate
+	NRT_VBR, // non real time variable bit rate, served at its sustainable cell rate
+	UBR      // unspecified bit rate, shares whatever is left fairly
+}
@@ -0,0 +1,139 @@
+package DataTypes;
+
+import java.util.*;
+
+/**
+ * A hashed timer wheel.  Each timer is put in the slot its expiry time hashes to (the time
+ * modulo the number of slots) and each tick only the one slot for that tick is looked at, so
+ * scheduling, cancelling and expiring a timer all take constant time however many timers
+ * are running.  Timers that are further off than the wheel is long stay in their slot for
+ * another turn of the wheel, so the wheel should be at least as long as the longest timer
+ * for each tick to only cost the timers that expire on it.
+ * @param <T> the kind of item that is handed back when its timer expires
+ */
+public class TimerWheel<T> {
+	private Timer<T>[] slots; // the first timer in each slot (each slot is a doubly linked list)
+	private int mask; // the number of slots less one (the number of slots is a power of two)
+	private long now = 0; // the current tick
+	private int size = 0; // the number of timers that are running
+
+	/**
+	 * Creates an empty wheel
+	 * @param length the number of slots on the wheel (rounded up to a power of two)
+	 */
+	@SuppressWarnings("unchecked")
+	public TimerWheel(int length){
+		int slotCount = Integer.highestOneBit(Math.max(1, length - 1)) << 1;
+
+		this.slots = (Timer<T>[]) new Timer<?>[slotCount];
+		this.mask = slotCount - 1;
+	}
+
+	/**
+	 * Starts a timer
+	 * @param item the item to be handed back when the timer expires
+	 * @param delay the number of ticks until the timer expires (at least 1)
+	 * @return the timer, which can be used to cancel it
+	 */
+	public Timer<T> schedule(T item, int delay){
+		Timer<T> timer = new Timer<T>(item, this.now + Math.max(1, delay));
+		int slot = (int)(timer.expiry & this.mask);
+
+		timer.slot = slot;
+		timer.next = this.slots[slot];
+		if(timer.next != null)
+			timer.next.prev = timer;
+		this.slots[slot] = timer;
+		this.size++;
+		return timer;
+	}
+
+	/**
+	 * Stops a timer before it expires.  Cancelling a timer that has already expired or been
+	 * cancelled does nothing.
+	 * @param timer the timer to be stopped
+	 */
+	public void cancel(Timer<T> timer){
+		if(timer == null || timer.slot < 0)
+			return;
+		this.unlink(timer);
+	}
+
+	/**
+	 * Moves the wheel on one tick and hands back the items whose timers expired on it
+	 * @param expired the list the expired items are added to
+	 * @return the number of timers that expired
+	 */
+	public int advance(List<T> expired){
+		Timer<T> timer, next;
+		int count = 0;
+
+		this.now++;
+		for(timer = this.slots[(int)(this.now & this.mask)]; timer != null; timer = next){
+			next = timer.next;
+			if(timer.expiry <= this.now){
+				this.unlink(timer);
+				expired.add(timer.item);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of ticks the wheel has been moved on
+	 * @return the current tick
+	 */
+	public long getTime(){
+		return this.now;
+	}
+
+	/**
+	 * Returns the number of timers that are running
+	 * @return the number of timers on the wheel
+	 */
+	public int size(){
+		return this.size;
+	}
+
+	/**
+	 * Takes a timer out of its slot
+	 * @param timer the timer to be taken out
+	 */
+	private void unlink(Timer<T> timer){
+		if(timer.prev != null)
+			timer.prev.next = timer.next;
+		else this.slots[timer.slot] = timer.next;
+		if(timer.next != null)
+			timer.next.prev = timer.prev;
+		timer.prev = null;
+		timer.next = null;
+		timer.slot = -1;
+		this.size--;
+	}
+
+	/**
+	 * A timer on the wheel
+	 * @param <T> the kind of item that is handed back when the timer expires
+	 */
+	public static class Timer<T>{
+		private T item; // the item handed back when the timer expires
+		private long expiry; // the tick the timer expires on
+		private int slot = -1; // the slot the timer is in (-1 once it has expired or been cancelled)
+		private Timer<T> prev = null; // the timer before this one in its slot
+		private Timer<T> next = null; // the timer after this one in its slot
+
+		private Timer(T item, long expiry){
+			this.item = item;
+			this.expiry = expiry;
+		}
+
+		/**
+		 * Says if the timer is still running
+		 * @return true if the timer hasn't expired or been cancelled
+		 */
+		public boolean isRunning(){
+			return this.slot >= 0;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package DataTypes;
+
+/**
+ * The traffic contract a connection asks for in its SETUP signal.  Rates are in cells per
+ * time unit.  Descriptors are never changed once they are made, so the same one can be
+ * shared by every cell and table that refers to a connection.
+ */
+public class TrafficDescriptor {
+	private ServiceCategory category; // the service category of the connection
+	private double pcr; // the peak cell rate
+	private double scr; // the sustainable cell rate (the same as the pcr for CBR and UBR)
+	private int mbs; // the maximum burst size (in cells) at the peak cell rate
+
+	/**
+	 * The descriptor used for connections that don't ask for anything in particular
+	 */
+	public static final TrafficDescriptor BEST_EFFORT = new TrafficDescriptor(ServiceCategory.UBR, 1, 1, 1);
+
+	/**
+	 * Constructor for a traffic descriptor
+	 * @param category the service category of the connection
+	 * @param pcr the peak cell rate (cells per time unit).  For UBR it is the connection's weight
+	 * when sharing the link with other UBR connections.
+	 * @param scr the sustainable cell rate (cells per time unit)
+	 * @param mbs the maximum burst size (in cells)
+	 */
+	public TrafficDescriptor(ServiceCategory category, double pcr, double scr, int mbs){
+		this.category = category;
+		this.pcr = pcr;
+		this.scr = scr;
+		this.mbs = mbs;
+	}
+
+	/**
+	 * Constructor for a CBR traffic descriptor
+	 * @param pcr the peak cell rate (cells per time unit)
+	 */
+	public TrafficDescriptor(double pcr){
+		this(ServiceCategory.CBR, pcr, pcr, 1);
+	}
+
+	/**
+	 * Returns the service category of the connection
+	 * @return the service category of the connection
+	 */
+	public ServiceCategory getCategory(){
+		return this.category;
+	}
+
+	/**
+	 * Returns the peak cell rate of the connection
+	 * @return the peak cell rate (cells per time unit)
+	 */
+	public double getPCR(){
+		return this.pcr;
+	}
+
+	/**
+	 * Returns the sustainable cell rate of the connection
+	 * @return the sustainable cell rate (cells per time unit)
+	 */
+	public double getSCR(){
+		return this.scr;
+	}
+
+	/**
+	 * Returns the maximum burst size of the connection
+	 * @return the maximum burst size (in cells)
+	 */
+	public int getMBS(){
+		return this.mbs;
+	}
+
+	/**
+	 * Returns the rate the connection's cells should be scheduled at: the peak cell rate 
+	 * for CBR and the sustainable cell rate for VBR.
+	 * @return the scheduling rate (cells per time unit)
+	 */
+	public double getServiceRate(){
+		if(this.category == ServiceCategory.CBR)
+			return this.pcr;
+		return this.scr;
+	}
+
+	/**
+	 * Returns this descriptor as a String
+	 * @return the string version of this descriptor
+	 */
+	public String toString(){
+		return this.category + " pcr=" + this.pcr + " scr=" + this.scr + " mbs=" + this.mbs;
+	}
+}
@@ -0,0 +1,120 @@
+package DataTypes;
+
+/**
+ * Hands out VC numbers for one VC number space (the input or the output VCs of a single
+ * nic).  The space is kept as a bitset with one bit per VC, plus a cursor
+ * that always points at or below the lowest free VC.  Allocation returns the lowest free
+ * VC (just like the old linear scan did) and release is a single bit flip.
+ * VC 0 is reserved for signaling and is never handed out.
+ */
+public class VCAllocator {
+	public static final int DEFAULT_CAPACITY = 1 << 16; // 64k VCs, the size of an ATM VCI
+	private long[] bits; // one bit per VC, set if the VC is in use
+	private int capacity; // the number of VCs in this space (including VC 0)
+	private int cursor = 1; // no VC below the cursor is free
+	private int inUse = 0; // the number of VCs currently handed out
+
+	/**
+	 * Creates an allocator for a 64k VC space
+	 */
+	public VCAllocator(){
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an allocator for a VC space of the given size
+	 * @param capacity the number of VC numbers in the space (VC 0 included)
+	 */
+	public VCAllocator(int capacity){
+		this.capacity = capacity;
+		this.bits = new long[(capacity + 63) >>> 6];
+		//VC 0 carries the signaling so it is never free
+		this.bits[0] = 1L;
+	}
+
+	/**
+	 * Allocates the lowest free VC in the space
+	 * @return the VC that was allocated, -1 if every VC is already in use
+	 */
+	public int allocate(){
+		int word = this.cursor >>> 6;
+
+		while(word < this.bits.length){
+			long free = ~this.bits[word];
+
+			//ignore the bits below the cursor in the first word we look at
+			if(word == (this.cursor >>> 6))
+				free &= -1L << (this.cursor & 63);
+
+			if(free != 0){
+				int vc = (word << 6) + Long.numberOfTrailingZeros(free);
+				if(vc >= this.capacity)
+					break;
+				this.bits[word] |= 1L << vc;
+				this.cursor = vc + 1;
+				this.inUse++;
+				return vc;
+			}
+			word++;
+		}
+
+		//every VC is taken, park the cursor at the end until something is released
+		this.cursor = this.capacity;
+		return -1;
+	}
+
+	/**
+	 * Marks a specific VC as in use (i.e. one that was proposed by a neighbour)
+	 * @param vc the VC to claim
+	 * @return true if the VC was free and is now claimed, false if it was taken or out of range
+	 */
+	public boolean claim(int vc){
+		if(vc <= 0 || vc >= this.capacity || this.isAllocated(vc))
+			return false;
+
+		this.bits[vc >>> 6] |= 1L << vc;
+		this.inUse++;
+		return true;
+	}
+
+	/**
+	 * Returns a VC to the free pool
+	 * @param vc the VC to be released
+	 */
+	public void release(int vc){
+		if(vc <= 0 || vc >= this.capacity || !this.isAllocated(vc))
+			return;
+
+		this.bits[vc >>> 6] &= ~(1L << vc);
+		this.inUse--;
+		if(vc < this.cursor)
+			this.cursor = vc;
+	}
+
+	/**
+	 * Returns whether or not a VC is currently in use
+	 * @param vc the VC to check
+	 * @return true if the VC is in use (VC 0 is always in use)
+	 */
+	public boolean isAllocated(int vc){
+		if(vc < 0 || vc >= this.capacity)
+			return false;
+		return (this.bits[vc >>> 6] & (1L << vc)) != 0;
+	}
+
+	/**
+	 * Returns the number of VCs that are currently handed out
+	 * @return the number of VCs that are currently handed out
+	 */
+	public int size(){
+		return this.inUse;
+	}
+
+	/**
+	 * Returns the number of VC numbers in this space (VC 0 included)
+	 * @return the number of VC numbers in this space
+	 */
+	public int getCapacity(){
+		return this.capacity;
+	}
+}
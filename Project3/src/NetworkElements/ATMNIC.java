@@ -16,15 +16,38 @@ public class ATMNIC {
 	private OtoOLink link; // The link connected to this nic
 	private boolean trace = false; // should we print out debug statements?
 	private ArrayList<ATMCell> inputBuffer = new ArrayList<ATMCell>(); // Where cells are put between the parent and nic
-	private ArrayList<ATMCell> outputBuffer = new ArrayList<ATMCell>(); // Where cells are put to be outputted
+	private CellRing signalingLane; // Where OAM cells are put to be outputted (sent ahead of any data)
+	private CellScheduler dataLane; // Where data cells are queued (per VC) to be outputted
 	private boolean tail=true, red=false, ppd=false, epd=false; // set what type of drop mechanism
-	private int maximumBufferCells = 20; // the maximum number of cells in the output buffer
+	private int maximumBufferCells = 20; // the maximum number of data cells in the output buffer
+	private int signalingReserveCells = 4; // the number of cells of the output buffer only OAM cells can use
+	private VCAllocator outVCs = new VCAllocator(); // the VCs in use on cells leaving this nic
+	private VCAllocator inVCs = new VCAllocator(); // the VCs in use on cells coming into this nic
+	private VCAllocator outVPIs = new VCAllocator(MAX_VPI + 1); // the virtual paths in use on cells leaving this nic
+	public static final int MAX_VPI = 4095; // the largest VPI (12 bits between switches)
+	private int port = -1; // where this nic is in its router's list of nics (-1 if the parent isn't a router)
+	private GCRAPolicer policer = null; // polices the VCs coming into this nic (null until a VC is policed)
+	private int CLP1Threshold = 10; // the number of data cells in the output buffer at which tagged (CLP=1) cells are dropped
+	private PortMetrics metrics; // cell loss, occupancy and goodput counters for the output port
+	/*connection admission control*/
+	private double linkCapacity = Double.POSITIVE_INFINITY; // the cell rate the link out of this nic can carry (cells per time unit)
+	private double committedBandwidth = 0; // the total equivalent bandwidth of the connections admitted out of this nic
 	/*RED state parameters*/
 	private int REDMinThresh = 10; //The minimum number of cells in the output buffer before we start dropping cells
 	private int REDMaxThresh = 20; //The maximum average number of cells to allow in the output buffer.
 	private double REDAvg; //average queue size for RED
+	private double REDWeight = 0.2; //the weight of a new queue size sample in the average
+	private double REDMaxProb = 0.1; //the drop probability when the average reaches the max threshold
+	private int REDCount = -1; //the number of cells admitted since the last drop (-1 if below the min threshold)
+	private int REDIdleSince = 0; //when the output buffer last went empty (-1 if it isn't empty)
+	private int id = RandomSource.nextID("nic"); //the number of this nic, the same every time the network is built
+	private Random REDRandom = RandomSource.stream("RED", id); //the random numbers for RED, worked out from the simulation seed
+	private int time = 0; //the number of time units this nic has seen
 	/*PPD state parameters*/
-	private boolean droppingAPacket; //is PPD currently dropping an IP packet?
+	private boolean droppingAPacket; //is PPD (or EPD) currently dropping an IP packet?
+	/*EPD state parameters*/
+	private int EPDThreshold = 15; //The number of cells in the output buffer at which EPD starts dropping new packets
+	private boolean EPDUseRED = false; //should EPD also drop packets with RED's probability?
 
 	/**
 	 * Default constructor for an ATM NIC
@@ -34,6 +57,9 @@ public class ATMNIC {
 	public ATMNIC(IATMCellConsumer parent){
 		this.parent = parent;
 		this.parent.addNIC(this);
+		this.signalingLane = new CellRing(maximumBufferCells + signalingReserveCells);
+		this.dataLane = new CellScheduler(maximumBufferCells);
+		this.metrics = new PortMetrics(maximumBufferCells);
 	}
 
 	/**
@@ -54,11 +80,25 @@ public class ATMNIC {
 				System.out.println("Warning (ATM NIC): You are sending a null cell");
 		}
 
-
-		if(this.tail) this.runTailDrop(cell);
+		this.metrics.cellOffered(cell);
+		
+		//OAM cells are never dropped, they go in their own lane
+		if(cell.getIsOAM()){
+			this.admitOAM(cell);
+			return;
+		}
+		
+		//cells that broke their contract are dropped first, before the buffer is full
+		if(cell.getCLP() && dataLane.size() >= CLP1Threshold){
+			this.metrics.cellDropped(cell);
+			System.out.println("The tagged cell " + cell.getTraceID() + " was dropped");
+		}
+		else if(this.tail) this.runTailDrop(cell);
 		else if(this.red) this.runRED(cell,false,false);
 		else if(this.ppd) this.runPPD(cell);
 		else if(this.epd) this.runEPD(cell);
+		
+		this.metrics.cellDone(cell);
 	}
 
 	/**
@@ -69,26 +109,26 @@ public class ATMNIC {
 	private void runTailDrop(ATMCell cell){
 		boolean cellDropped = false;
 
-		if(outputBuffer.size() < maximumBufferCells){
-			outputBuffer.add(cell);
-		}
-		//Never drop an OAM cell.
-		else if(cell.getIsOAM()){
-			forceOAM(cell);
+		if(!this.dataLaneFull()){
+			dataLane.add(cell);
 		}
 		else cellDropped = true;
 
 		// Output to the console what happened
-		if(cellDropped)
+		if(cellDropped){
+			this.metrics.cellDropped(cell);
 			System.out.println("The cell " + cell.getTraceID() + " was tail dropped");
+		}
 		else
 			if(this.trace)
 				System.out.println("The cell " + cell.getTraceID() + " was added to the output queue");
 	}
 
 	/**
-	 * Runs Random early detection on the cell.  Computes the average queue length over time
-	 * and drops 
+	 * Runs Random early detection on the cell.  Keeps an exponentially weighted moving average
+	 * of the queue length (decayed over the time the queue sat empty) and drops cells with a
+	 * probability that grows with the average between the min and max thresholds, spread out
+	 * by the number of cells admitted since the last drop.
 	 * @param cell the cell to be added/dropped from the queue
 	 * @param withPPD set this to true if using RED for PPD
 	 * @param withEPD set this to true if using RED for EPD
@@ -96,88 +136,103 @@ public class ATMNIC {
 	 * @since 1.0
 	 */
 	private boolean runRED(ATMCell cell, boolean withPPD, boolean withEPD){
-		Random rnd = new Random();
 		boolean cellDropped = false;
 		double dropProbability = 0.0;
-		double aveInt;
-		int sidesOfADie; //used to "roll a die" to see if packet gets dropped or not
 
-		//calculate the average queue size
-		//System.out.println("REDSumOfSizes " + REDSumOfSizes);
-		//this.REDAvg = (double)REDSumOfSizes/(double)++count;
-		//aveInt = Math.rint(REDAvg);
-		
-		aveInt = (REDAvg + (outputBuffer.size() + 1))/2;
-		
+		this.updateREDAverage();
+
 		//If the average is between the min and max thresh
-		if(REDMaxThresh>aveInt && REDMinThresh < aveInt){
-			//Create a "die" to roll for this packet.
-			//As ave. approaches REDMaxThresh, the die gets smaller.
-			sidesOfADie = (REDMaxThresh + 1) - (int)aveInt;
-			dropProbability = 1.0/(double)sidesOfADie;
-			System.out.println("(RED) Ave Queue Size: " + aveInt + " (in prob. drop zone).");
-			System.out.println("(RED) Drop Prob: " + dropProbability + " = 1/" + sidesOfADie);
-			//roll the die. Drop packet on a 1.
-			if((rnd.nextInt(sidesOfADie) + 1) == 1){
+		if(REDMinThresh <= REDAvg && REDAvg < REDMaxThresh){
+			REDCount++;
+			dropProbability = this.REDDropProbability();
+			if(REDRandom.nextDouble() < dropProbability){
 				cellDropped = true;
+				REDCount = 0;
 			}
-			else{
-				outputBuffer.add(cell);
-				//REDSumOfSizes += outputBuffer.size();
-			}
-		}
-		else if(REDMaxThresh < aveInt){
-			System.out.println("(RED) Ave Queue Size: " + aveInt + " (> RED Max Threshold)");
-			//If this is an OAM cell we need to force it in by evicting some other cell
-			if(cell.getIsOAM()){
-				forceOAM(cell);
-				return true;
-			}
-			else
-				cellDropped = true;
 		}
-		else{
-			System.out.println("(RED) Ave Queue Size: " + aveInt + " (< RED Min Threshold)");
-			outputBuffer.add(cell);
-			//REDSumOfSizes += outputBuffer.size();
+		else if(REDMaxThresh <= REDAvg){
+			dropProbability = 1.0;
+			cellDropped = true;
+			REDCount = 0;
 		}
+		else
+			REDCount = -1;
+
+		//the buffer can still physically fill up
+		if(!cellDropped && this.dataLaneFull())
+			cellDropped = true;
+		if(!cellDropped)
+			dataLane.add(cell);
 
 		// Output to the console if not using RED for PPD or EPD, otherwise they will
 		// handle it on their own.
 		if(cellDropped){
-			if(!withPPD && !withEPD)
+			if(!withPPD && !withEPD){
+				this.metrics.cellDropped(cell);
 				System.out.println("The cell " + cell.getTraceID() + 
 						" was dropped with probability " + dropProbability);
+			}
 			return false;
 		}
-		else{
-			if(this.trace && !withPPD && !withEPD)
-				System.out.println("The cell " + cell.getTraceID() + " was added to the output queue");
-			return true;
+		return true;
+	}
+
+	/**
+	 * Brings the RED average queue size up to date for a cell arriving now.  If the queue
+	 * has been empty, the average is first decayed as if a zero length queue had been seen
+	 * once for every time unit it sat idle.
+	 */
+	private void updateREDAverage(){
+		if(dataLane.isEmpty() && REDIdleSince >= 0){
+			REDAvg *= Math.pow(1 - REDWeight, this.time - REDIdleSince);
+			REDIdleSince = -1;
 		}
+		REDAvg = (1 - REDWeight) * REDAvg + REDWeight * dataLane.size();
+	}
+
+	/**
+	 * Returns the probability of dropping the next cell, given the current average queue size
+	 * and the number of cells admitted since the last drop.  Only meaningful while the average
+	 * is between the min and max thresholds.
+	 * @return the probability of dropping the next cell
+	 */
+	private double REDDropProbability(){
+		double pb = REDMaxProb * (REDAvg - REDMinThresh) / (REDMaxThresh - REDMinThresh);
+
+		if(REDCount * pb >= 1)
+			return 1.0;
+		return pb / (1 - REDCount * pb);
 	}
 
 	/**
-	 * Force an OAM cell into the queue by evicting the first non-OAM cell
-	 * in the queue and replacing it with the OAM cell.  Only call this method
-	 * when the queue is full (or the average queue size is too high.)
-	 * @param cell - the OAM cell which is causing the eviction
-	 * @remarks This method was implemented under the assumption that the 
-	 * output buffer will never be filled with only OAM cells (as posted on discussion board)
-	 * Thus, there will always be at least one non-OAM cell to evict.
+	 * Puts an OAM cell in the signaling lane.  The signaling lane has signalingReserveCells
+	 * of the buffer to itself and can borrow whatever the data lane isn't using.  If the whole
+	 * buffer is full, the newest data cell is evicted from the tail of the data lane to make room.
+	 * @param cell - the OAM cell to be queued
 	 */
-	private void forceOAM(ATMCell cell) {
-		ATMCell victim;
-		for(int i = 0;i < this.outputBuffer.size();i++){
-			victim = outputBuffer.get(i);
-			if(!victim.getIsOAM()){
-				outputBuffer.remove(i);
-				outputBuffer.add(cell);
+	private void admitOAM(ATMCell cell) {
+		if(signalingLane.size() + dataLane.size() >= maximumBufferCells + signalingReserveCells){
+			ATMCell evicted = dataLane.removeNewest();
+			if(evicted != null){
+				this.metrics.cellDropped(evicted);
 				System.out.println("Trace (ATMNIC): Evicted a packet in the queue" +
 				"to make room for an OAM cell.");
-				return;
 			}
 		}
+		if(!signalingLane.add(cell)){
+			this.metrics.cellDropped(cell);
+			System.err.println("Error (ATM NIC): The output buffer is full of OAM cells, dropped " + cell.getTraceID());
+		}
+	}
+
+	/**
+	 * Returns whether or not there is room for another data cell in the output buffer.  Data
+	 * cells can't use the signaling reserve or any of the buffer borrowed by OAM cells.
+	 * @return true if another data cell would not fit
+	 */
+	private boolean dataLaneFull(){
+		return dataLane.size() >= maximumBufferCells || 
+				dataLane.size() + signalingLane.size() >= maximumBufferCells + signalingReserveCells;
 	}
 
 	/**
@@ -192,18 +247,15 @@ public class ATMNIC {
 		//If in the process of dropping a packet, check if this is part of
 		//that same packet.
 		if(this.droppingAPacket){
-			//FIRST check OAM.  If it is OAM, just let it go through to RED processing.
-			if(!cell.getIsOAM()){
-				//If it is part of packet being dropped, drop it.
-				if(cell.getPacketData() == null){
-					cellDropped = true;
-				}
-				//If new IP packet allow it to try it's luck with RED
-				else this.droppingAPacket = false;
+			//If it is part of packet being dropped, drop it.
+			if(cell.getPacketData() == null){
+				cellDropped = true;
 			}
+			//If new IP packet allow it to try it's luck with RED
+			else this.droppingAPacket = false;
 		}
 
-		if(!this.droppingAPacket || cell.getIsOAM()){
+		if(!this.droppingAPacket){
 			//If RED doesn't admit the packet, start dropping all the cells.
 			if(!runRED(cell,true,false)){
 				cellDropped = true;
@@ -212,8 +264,10 @@ public class ATMNIC {
 		}
 
 		// Output to the console what happened
-		if(cellDropped)
+		if(cellDropped){
+			this.metrics.cellDropped(cell);
 			System.out.println("The cell " + cell.getTraceID() + " was dropped");
+		}
 		else
 			if(this.trace)
 				System.out.println("The cell " + cell.getTraceID() + 
@@ -221,94 +275,79 @@ public class ATMNIC {
 	}
 
 	/**
-	 * Runs Early packet drop on the cell
+	 * Runs Early packet drop on the cell.  The decision to take or drop a whole packet is made
+	 * once, on its IP header cell (see admitPacket()).  The rest of an admitted packet is only
+	 * dropped if the buffer physically fills up, in which case the rest of it is dropped too.
 	 * @param cell the cell to be added/dropped from the queue
 	 * @since 1.0
 	 */
 	private void runEPD(ATMCell cell){
 		boolean cellDropped = false;
 		
-		//if cell is not an IP header, check if packet is being dropped.
-		if(cell.getPacketData() == null){
-			//if so, drop it as long as it's not an OAM cell.
-			if(this.droppingAPacket && !cell.getIsOAM()) cellDropped = true;
-			//if not dropping, let it go through RED (which will also handle OAM).
-			else cellDropped = !this.runRED(cell,false,true);
+		//if cell IS an IP header, decide whether the whole packet gets in.
+		if(cell.getPacketData() != null)
+			this.droppingAPacket = !this.admitPacket(cell);
+		
+		//if the packet is being dropped (or there's no room left for it), drop the cell.
+		if(this.droppingAPacket || this.dataLaneFull()){
+			cellDropped = true;
+			this.droppingAPacket = true;
 		}
-		//if cell IS an IP header, we need to run a RED simulation on it.
-		else{
-			System.out.println("(EPD) Running RED simulation.");
-			cellDropped = !this.runREDSimulation(cell);
-			this.droppingAPacket = cellDropped;
-			if(cellDropped = false)
-				cellDropped = this.runRED(cell, false, true);
-		}		
+		else
+			dataLane.add(cell);
+		
 		// Output to the console what happened
-		if(cellDropped)
+		if(cellDropped){
+			this.metrics.cellDropped(cell);
 			System.out.println("The cell " + cell.getTraceID() + " was dropped");
+		}
 		else
 			if(this.trace)
 				System.out.println("The cell " + cell.getTraceID() + " was added to the output queue");
 	}
 
 	/**
-	 * Run a simulation of the RED algorithm of an IP cell to determine if any of its
-	 * cells will be dropped or not.
-	 * @param cell the cell containing the IP header we want to analyze
-	 * @return true if the entire packet would make it through, false otherwise.
-	 */
-	private boolean runREDSimulation(ATMCell cell) {
-		boolean packetAdmitted = false;
-		int packetLen = 0,numCells = 0;
-		int sidesOfADie;
-		ArrayList<ATMCell> virtualOutputBuffer = (ArrayList<ATMCell>)this.outputBuffer.clone();
-		double aveInt,dropProbability = 0.0;
-		Random rnd = new Random();
-
-		//1. get the length of the IP packet
-		packetLen = cell.getPacketData().getSize();
-		//2. Divide the length across x ATM cells
-		numCells = packetLen/ATMCell.CELL_SIZE + 1;
-		System.out.println("(REDSIM) A packet of length " + packetLen + " = " + 
-				numCells + " ATM cells.");
-
-		//3. Run RED simulation using a virtual buffer and virtual counter for each cell
-		for(int i = 0;i<numCells;i++){
-			//calculate the average queue size
-			aveInt = (REDAvg + (virtualOutputBuffer.size() + 1))/2;
-			
-			//If the average is between the min and max thresh
-			if(REDMaxThresh>aveInt && REDMinThresh < aveInt){
-				//Create a "die" to roll for this packet.
-				//As ave. approaches REDMaxThresh, the die gets smaller.
-				sidesOfADie = (REDMaxThresh + 1) - (int)aveInt;
-				dropProbability = 1.0/(double)sidesOfADie;
-				
-				System.out.println("(REDSIM) Ave Queue Size: " + aveInt + " (in prob. drop zone).");
-				System.out.println("(REDSIM) Drop Prob: 1/" + sidesOfADie);
-				//roll the die. Drop packet on a 1.
-				if((rnd.nextInt(sidesOfADie) + 1) == 1){
-					System.out.println("(REDSIM) Simulation detected a cell drop.");
-					return false;
-				}
-				else{
-					virtualOutputBuffer.add(cell);
-				}
-			}
-			else if(REDMaxThresh < aveInt){
-				System.out.println("(REDSIM) Simulation detected a cell drop.");
-				return false;
-			}
-			else{
-				System.out.println("(REDSIM)Ave Queue Size: " + aveInt + " (< RED Min Threshold)");
-				virtualOutputBuffer.add(cell);
-			}
-		}
-		
-		//if we made it here, the packet is good to go.
-		System.out.println("(REDSIM) Packet passed RED simulation.");
-		packetAdmitted = true;
-		return packetAdmitted;
+	 * Decides whether EPD should take a packet, without looking at anything but the queue
+	 * occupancy and the number of cells in the packet.  Classic EPD takes the packet if the
+	 * queue is below the EPD threshold and the whole packet fits in the buffer.  If EPD is set
+	 * to use RED, the packet is also dropped with the probability that RED would drop at least
+	 * one of its cells at the current average queue size, 1 - (1 - p)^cells.
+	 * @param cell the cell containing the IP header of the packet
+	 * @return true if the entire packet should be taken, false if it should be dropped
+	 */
+	private boolean admitPacket(ATMCell cell) {
+		int packetLen = cell.getPacketData().getSize();
+		int numCells = Math.max(1, (packetLen + ATMCell.CELL_SIZE - 1) / ATMCell.CELL_SIZE);
+		double dropProbability;
+
+		if(dataLane.size() >= EPDThreshold || dataLane.size() + numCells > maximumBufferCells)
+			return false;
+		if(!EPDUseRED)
+			return true;
+
+		this.updateREDAverage();
+		if(REDAvg < REDMinThresh)
+			return true;
+		if(REDAvg >= REDMaxThresh)
+			return false;
+		dropProbability = REDMaxProb * (REDAvg - REDMinThresh) / (REDMaxThresh - REDMinThresh);
+		return REDRandom.nextDouble() >= 1 - Math.pow(1 - dropProbability, numCells);
+	}
+
+	/**
+	 * Sets the queue occupancy (in cells) at and above which EPD drops new packets
+	 * @param threshold the EPD threshold in cells
+	 */
+	public void setEPDThreshold(int threshold){
+		this.EPDThreshold = threshold;
+	}
+
+	/**
+	 * Sets whether EPD also drops packets with the probability that RED would drop one of their cells
+	 * @param useRED true if EPD should use RED as well as its threshold
+	 */
+	public void setEPDUseRED(boolean useRED){
+		this.EPDUseRED = useRED;
 	}
 
 	/**
@@ -329,6 +368,8 @@ public class ATMNIC {
 	public void setIsRED(){
 
 		this.REDAvg = 0;
+		this.REDCount = -1;
+		this.REDIdleSince = this.dataLane.isEmpty() ? this.time : -1;
 
 		this.red=true;
 		this.tail=false;
@@ -336,6 +377,39 @@ public class ATMNIC {
 		this.epd=false;
 	}
 
+	/**
+	 * Sets the weight of each new queue size sample in the RED average queue size
+	 * @param weight the weight of a new sample (between 0 and 1)
+	 */
+	public void setREDWeight(double weight){
+		this.REDWeight = weight;
+	}
+
+	/**
+	 * Sets the probability RED drops cells with when the average reaches the max threshold
+	 * @param maxProb the drop probability at the max threshold
+	 */
+	public void setREDMaxProbability(double maxProb){
+		this.REDMaxProb = maxProb;
+	}
+
+	/**
+	 * Seeds the random numbers RED uses to decide which cells get dropped
+	 * @param seed the seed for the random numbers
+	 */
+	public void setREDSeed(long seed){
+		this.REDRandom = new Random(seed);
+	}
+
+	/**
+	 * Returns the number of this nic.  Nics are numbered in the order they are made, starting
+	 * again whenever RandomSource.setSeed() is called, so a nic has the same number every run.
+	 * @return the number of this nic
+	 */
+	public int getID(){
+		return this.id;
+	}
+
 	/**
 	 * Sets that the nic should use PPD when deciding weather or not to add cells to the queue
 	 * @since 1.0
@@ -353,12 +427,226 @@ public class ATMNIC {
 	 * @since 1.0
 	 */
 	public void setIsEPD(){
+		this.droppingAPacket = false;
 		this.red=false;
 		this.tail=false;
 		this.ppd=false;
 		this.epd=true;
 	}
 
+	/**
+	 * Opens an output queue for a VC leaving this nic.  The VC's cells are scheduled
+	 * according to the service category and rate in its traffic contract.  Cells on VCs
+	 * that were never opened share a single best effort (UBR) queue.
+	 * @param vc the VC on cells leaving this nic
+	 * @param traffic the traffic contract of the connection
+	 */
+	public void openVC(int vc, TrafficDescriptor traffic){
+		this.dataLane.open(vc, traffic);
+	}
+
+	/**
+	 * Opens an output queue for a virtual path leaving this nic.  All of the VCs on the path
+	 * share the queue, and are scheduled by the traffic contract of the whole path.
+	 * @param vpi the VPI on cells leaving this nic
+	 * @param traffic the traffic contract of the virtual path
+	 */
+	public void openVP(int vpi, TrafficDescriptor traffic){
+		this.dataLane.openVP(vpi, traffic);
+	}
+
+	/**
+	 * Closes the output queue for a VC leaving this nic (any cells still queued are sent)
+	 * @param vc the VC on cells leaving this nic
+	 */
+	public void closeVC(int vc){
+		this.dataLane.close(vc);
+	}
+
+	/**
+	 * Returns the traffic contract a VC leaving this nic was opened with
+	 * @param vc the VC on cells leaving this nic
+	 * @return the traffic contract of the VC, or null if it isn't open
+	 */
+	public TrafficDescriptor getVCTraffic(int vc){
+		return this.dataLane.getTraffic(vc);
+	}
+	
+	/**
+	 * Connection admission control.  Reserves the equivalent bandwidth of a connection on
+	 * the link out of this nic, if there is enough left.
+	 * @param traffic the traffic contract of the connection
+	 * @return true if the connection was admitted, false if the link can't carry it
+	 */
+	public boolean reserveBandwidth(TrafficDescriptor traffic){
+		double bandwidth = this.getEquivalentBandwidth(traffic);
+		
+		if(this.committedBandwidth + bandwidth > this.linkCapacity)
+			return false;
+		this.committedBandwidth += bandwidth;
+		return true;
+	}
+	
+	/**
+	 * Gives back the bandwidth reserved for a connection by reserveBandwidth()
+	 * @param traffic the traffic contract of the connection (ignored if null)
+	 */
+	public void releaseBandwidth(TrafficDescriptor traffic){
+		if(traffic == null)
+			return;
+		this.committedBandwidth = Math.max(0, this.committedBandwidth - this.getEquivalentBandwidth(traffic));
+	}
+	
+	/**
+	 * Works out the bandwidth a connection needs on this nic's link.  CBR needs its peak
+	 * rate and UBR is promised nothing.  VBR needs somewhere between its sustainable and
+	 * peak rates: the bigger its bursts are compared to the buffer that has to soak them up,
+	 * the closer to the peak rate.  rt-VBR can only use half the buffer, since its cells
+	 * can't sit in a full queue for long.
+	 * @param traffic the traffic contract of the connection
+	 * @return the equivalent bandwidth in cells per time unit
+	 */
+	public double getEquivalentBandwidth(TrafficDescriptor traffic){
+		double buffer = this.maximumBufferCells;
+		
+		switch(traffic.getCategory()){
+		case CBR:
+			return traffic.getPCR();
+		case RT_VBR:
+		case NRT_VBR:
+			if(traffic.getCategory() == ServiceCategory.RT_VBR)
+				buffer /= 2;
+			return traffic.getSCR() + (traffic.getPCR() - traffic.getSCR()) * Math.min(1.0, traffic.getMBS() / buffer);
+		default:
+			return 0;
+		}
+	}
+	
+	/**
+	 * Sets the cell rate the link out of this nic can carry, for connection admission control
+	 * @param capacity the capacity of the link in cells per time unit
+	 */
+	public void setLinkCapacity(double capacity){
+		this.linkCapacity = capacity;
+	}
+	
+	/**
+	 * Returns the cell rate the link out of this nic can carry
+	 * @return the capacity of the link in cells per time unit
+	 */
+	public double getLinkCapacity(){
+		return this.linkCapacity;
+	}
+	
+	/**
+	 * Returns the bandwidth reserved by the connections admitted out of this nic
+	 * @return the committed bandwidth in cells per time unit
+	 */
+	public double getCommittedBandwidth(){
+		return this.committedBandwidth;
+	}
+	
+	/**
+	 * Starts policing a VC coming into this nic against its traffic contract
+	 * @param vc the VC on cells coming into this nic
+	 * @param traffic the traffic contract of the connection
+	 */
+	public void policeVC(int vc, TrafficDescriptor traffic){
+		this.getPolicer().police(vc, traffic);
+	}
+	
+	/**
+	 * Stops policing a VC coming into this nic
+	 * @param vc the VC on cells coming into this nic
+	 */
+	public void unpoliceVC(int vc){
+		if(this.policer != null)
+			this.policer.unpolice(vc);
+	}
+	
+	/**
+	 * Returns the policer for the VCs coming into this nic (so it can be set up or its counters read)
+	 * @return the policer for the VCs coming into this nic
+	 */
+	public GCRAPolicer getPolicer(){
+		if(this.policer == null)
+			this.policer = new GCRAPolicer();
+		return this.policer;
+	}
+	
+	/**
+	 * Sets the number of data cells in the output buffer at and above which tagged (CLP=1) cells are dropped
+	 * @param threshold the number of cells
+	 */
+	public void setCLP1Threshold(int threshold){
+		this.CLP1Threshold = threshold;
+	}
+	
+	/**
+	 * Returns whether this nic is the user side of the network, i.e. the other end of
+	 * its link is in a computer rather than a router
+	 * @return true if this nic is linked to a computer's nic
+	 */
+	public boolean isUserSide(){
+		ATMNIC other;
+		
+		if(this.link == null)
+			return false;
+		other = this.link.getOtherNIC(this);
+		return other != null && other.parent instanceof Computer;
+	}
+	
+	/**
+	 * Returns the counters for this nic's output port (see PortMetrics.snapshot() for a copy
+	 * that can be read while the simulation runs)
+	 * @return the counters for this nic's output port
+	 */
+	public PortMetrics getMetrics(){
+		return this.metrics;
+	}
+	
+	/**
+	 * Returns the allocator for the VCs that are in use on cells leaving this nic
+	 * @return the allocator for the VCs that are in use on cells leaving this nic
+	 */
+	public VCAllocator getOutVCs(){
+		return this.outVCs;
+	}
+	
+	/**
+	 * Returns the allocator for the virtual paths that are in use on cells leaving this nic
+	 * @return the allocator for the VPIs that are in use on cells leaving this nic
+	 */
+	public VCAllocator getOutVPIs(){
+		return this.outVPIs;
+	}
+	
+	/**
+	 * Returns the allocator for the VCs that are in use on cells coming into this nic.  Each
+	 * nic of a router has its own input VC space, just like a real ATM switch port.
+	 * @return the allocator for the VCs that are in use on cells coming into this nic
+	 */
+	public VCAllocator getInVCs(){
+		return this.inVCs;
+	}
+	
+	/**
+	 * Returns where this nic is in its router's list of nics, so the router can find the
+	 * switching table for the port without a search
+	 * @return the port number of this nic, -1 if the parent isn't a router
+	 */
+	int getPort(){
+		return this.port;
+	}
+	
+	/**
+	 * Sets where this nic is in its router's list of nics
+	 * @param port the port number of this nic
+	 */
+	void setPort(int port){
+		this.port = port;
+	}
+
 	/**
 	 * This method connects a link to this nic
 	 * @param link the link to connect to this nic
@@ -367,6 +655,22 @@ public class ATMNIC {
 	public void connectOtoOLink(OtoOLink link){
 		this.link = link;
 	}
+	
+	/**
+	 * Returns the link connected to this nic
+	 * @return the link connected to this nic, or null if there isn't one
+	 */
+	public OtoOLink getLink(){
+		return this.link;
+	}
+	
+	/**
+	 * Returns the router or computer that this nic is in
+	 * @return the router or computer that this nic is in
+	 */
+	public IATMCellConsumer getParent(){
+		return this.parent;
+	}
 
 	/**
 	 * This method is called when a cell is received over the link that this nic is connected to
@@ -379,13 +683,31 @@ public class ATMNIC {
 	}
 
 	/**
-	 * Moves the cells from the output buffer to the line (then they get moved to the next nic's input buffer)
+	 * Moves the cells from the output buffer to the line (then they get moved to the next nic's input buffer).
+	 * Cells already on the line are moved along first, then as many cells are sent as the link 
+	 * can carry in a time unit.  The rest wait in the buffer.
 	 * @since 1.0
 	 */
 	public void clearOutputBuffers(){
-		for(int i=0; i<this.outputBuffer.size(); i++)
-			this.link.sendCell(this.outputBuffer.get(i), this);
-		this.outputBuffer.clear();
+		int budget;
+		
+		this.time++;
+		this.metrics.sampleOccupancy(this.dataLane.size());
+		if(this.link == null)
+			return;
+		this.link.tick(this);
+		budget = this.link.getCapacity() > 0 ? this.link.getCapacity() : Integer.MAX_VALUE;
+		//signaling goes first
+		while(budget > 0 && !this.signalingLane.isEmpty()){
+			this.link.sendCell(this.signalingLane.poll(), this);
+			budget--;
+		}
+		while(budget > 0 && !this.dataLane.isEmpty()){
+			this.link.sendCell(this.dataLane.next(this.time), this);
+			budget--;
+		}
+		if(this.REDIdleSince < 0 && this.dataLane.isEmpty())
+			this.REDIdleSince = this.time;
 	}
 
 	/**
@@ -393,8 +715,16 @@ public class ATMNIC {
 	 * @since 1.0
 	 */
 	public void clearInputBuffers(){
-		for(int i=0; i<this.inputBuffer.size(); i++)
-			this.parent.receiveCell(this.inputBuffer.get(i), this);
+		for(int i=0; i<this.inputBuffer.size(); i++){
+			ATMCell cell = this.inputBuffer.get(i);
+			//usage parameter control on the way in
+			if(this.policer != null && !cell.getIsOAM() && !this.policer.receiveCell(cell, this.time)){
+				if(this.trace)
+					System.out.println("The cell " + cell.getTraceID() + " was discarded by the policer");
+				continue;
+			}
+			this.parent.receiveCell(cell, this);
+		}
 		this.inputBuffer.clear();
 	}
 }
@@ -14,11 +14,40 @@ public class ATMRouter implements IATMCellConsumer{
 	private int address; // The AS address of this router
 	private ArrayList<ATMNIC> nics = new ArrayList<ATMNIC>(); // all of the nics in this router
 	private TreeMap<Integer, ATMNIC> nextHop = new TreeMap<Integer, ATMNIC>(); // a map of which interface to use to get to a given router on the network
-	private TreeMap<Integer, NICVCPair> VCtoVC = new TreeMap<Integer, NICVCPair>(); // a map of input VC to output nic and new VC number
+	private HashMap<NICVCPair, NICVCPair> VCtoVC = new HashMap<NICVCPair, NICVCPair>(); // a map of input nic and VC to output nic and new VC number
+	private HashMap<NICVCPair, NICVCPair> outToInVC = new HashMap<NICVCPair, NICVCPair>(); // the reverse of VCtoVC, output nic and VC to input nic and VC
+	private ArrayList<PortTable> portTables = new ArrayList<PortTable>(); // the data path's copy of VCtoVC, one table per input nic (in the same order as nics)
+	private static final int NOT_SWITCHED = -1, TERMINATED = -2; // output port entries for a VC with no connection, and for one that ends here
+	private static final int MULTIPOINT = -3; // output port entry for a VC whose cells go out on the branches in its port table
+	private TreeMap<Integer, VirtualPathNIC> virtualPaths = new TreeMap<Integer, VirtualPathNIC>(); // the virtual paths that end here, by the address of the router at the other end
 	private boolean trace=true; // should we print out debug code?
-	private int traceID = (int) (Math.random() * 100000); // create a random trace id for cells
-	private ATMNIC currentConnAttemptNIC = null; //Used to detect current connection attempts
+	private int traceID = RandomSource.stream("router", RandomSource.nextID("router")).nextInt(100000); // create a random trace id for cells, the same every run for a given seed
+	private HashMap<Integer, PendingSetup> pendingSetups = new HashMap<Integer, PendingSetup>(); // setups sent downstream that have not been connected yet, by call reference
+	private PriorityQueue<PendingSetup> setupRetries = new PriorityQueue<PendingSetup>(); // setups that are backing off after a wait or waiting on their setup timer, by when that runs out
+	private int maxPendingSetups = 1024; // the number of setups this router will have in progress before it answers wait
+	private int nextCallRef = 1; // the call reference for the next setup sent by this router
+	private int time = 0; // the number of time units this router has seen
+	private AAL5Reassembler reassembler = new AAL5Reassembler(); // puts cells on VCs that end here back together into packets
+	private int reassemblyChannels = 0; // the number of port/VC pairs that have been given a reassembly channel
+	private static final int MAX_BACKOFF = 64; // the longest a setup will back off for after a wait (in time units)
+	private static final int SETUP_TIMEOUT = 100; // how long a setup waits for a connect or release before it is given up on (like the UNI's T310)
 	private boolean displayCommands = true; // should we output the commands that are received?
+	private TopologyDatabase topology = null; // the link state routing this router is part of (null if its tables are set by hand)
+	private TreeMap<Integer, ATMNIC> neighbors = new TreeMap<Integer, ATMNIC>(); // the nic each neighbouring router is reached on
+	private boolean sourceRouting = false; // should setups this router originates carry a designated transit list?
+	private static final int MAX_CRANKBACKS = 3; // the number of other paths a source routed setup tries before giving up
+	private TimerWheel<Monitor> oamTimers = null; // the F5 OAM monitors of the connections through this router (null if OAM monitoring is off)
+	private ArrayList<Monitor> oamExpired = new ArrayList<Monitor>(); // the monitors whose timers expired this tick (reused every tick)
+	private int oamPeriod = 0; // the number of ticks between the F5 cells sent on each connection
+	private int oamFailureTicks = 0; // the number of ticks a connection can go unheard from before it is released
+	/*switching counters (the output ports keep their own, see ATMNIC.getMetrics(), and the
+	 cells switched from each input VC are kept in its port table)*/
+	private long oamCellsReceived = 0; // OAM cells received on any nic
+	private long dataCellsReceived = 0; // data cells received on any nic
+	private long cellsTerminated = 0; // data cells on VCs that end at this router
+	private long cellsUnknownVC = 0; // data cells dropped because their VC isn't in use here
+	private long cellsVPSwitched = 0; // cells switched on their VPI alone, through virtual paths that pass through this router
+	private long connectionsFailed = 0; // connections released because OAM found their path broken
 	
 	/**
 	 * The default constructor for an ATM router
@@ -35,7 +64,9 @@ public class ATMRouter implements IATMCellConsumer{
 	 * @since 1.0
 	 */
 	public void addNIC(ATMNIC nic){
+		nic.setPort(this.nics.size());
 		this.nics.add(nic);
+		this.portTables.add(new PortTable());
 	}
 	
 
@@ -46,36 +77,124 @@ public class ATMRouter implements IATMCellConsumer{
 	 * @since 1.0
 	 */
 	public void receiveCell(ATMCell cell, ATMNIC nic){
-		NICVCPair forwardingPair;
-		int forwardingVC;
-		ATMNIC forwardingNIC;
-		ATMCell forwardingCell;
+		int inVC, port;
+		PortTable table;
 		
 		if(trace)
 			System.out.println("Trace (ATMRouter): Received a cell " + cell.getTraceID());
 		
-		if(cell.getIsOAM()){
+		if(cell.getVPI() != 0){
+			// cells on a virtual path are switched on the VPI, whatever is in them
+			this.switchVP(cell, nic);
+		}
+		else if(cell.getIsOAM()){
 			// OAM is used for signaling so here we just process the signals
+			this.oamCellsReceived++;
 			this.processOAMSignal(cell,nic);
 		}
 		else{
 			// find the nic and new VC number to forward the cell on
 			// otherwise the cell has nowhere to go. output to the console and drop the cell
-			forwardingPair = VCtoVC.get(cell.getVC());
-			if(forwardingPair != null){
-				forwardingVC = forwardingPair.getVC();
-				forwardingNIC = forwardingPair.getNIC();
-				forwardingCell = new ATMCell(forwardingVC, cell.getData(), cell.getTraceID());
-				forwardingNIC.sendCell(forwardingCell, this);
+			this.dataCellsReceived++;
+			inVC = cell.getVC();
+			table = this.portTables.get(nic.getPort());
+			port = inVC >= 0 && inVC < table.outPort.length ? table.outPort[inVC] : NOT_SWITCHED;
+			if(port != NOT_SWITCHED)
+				table.lastCell[inVC] = this.time;
+			if(port >= 0){
+				table.cellsSwitched[inVC]++;
+				// relabel the cell in place rather than copying it, nothing upstream holds on to a
+				// cell once it is sent, and the IP header, end of frame and CLP bits all go with it
+				cell.setVC(table.outVC[inVC]);
+				this.nics.get(port).sendCell(cell, this);
+			}
+			//point to multipoint connections copy the cell onto each of their branches
+			else if(port == MULTIPOINT){
+				table.cellsSwitched[inVC]++;
+				this.replicate(cell, table, inVC);
 			}
-			//if this is the destination or a bad address just drop it.
+			//if this is the destination, put the cell back into its packet
+			else if(port == TERMINATED){
+				this.reassemble(cell, table, inVC);
+				this.cellsTerminated++;
+				this.cellDeadEnd(cell);
+			}
+			//if this is a bad address just drop it.
 			else{
+				this.cellsUnknownVC++;
 				System.out.println("Trace (ATMRouter): Dropped an ATM cell either because" +
 						"it contained an invalid address or because it reached its dest.");
 			}
 		}		
 	}
 	
+	/**
+	 * Sends a cell down every branch of a point to multipoint connection.  Each branch but the
+	 * last gets a copy of the cell that shares its payload, so the fan out only costs a cell
+	 * header per branch.  The last branch gets the cell itself.
+	 * @param cell the cell to be sent
+	 * @param table the port table of the nic the cell came in on
+	 * @param inVC the VC the cell came in on
+	 */
+	private void replicate(ATMCell cell, PortTable table, int inVC){
+		Branch[] branches = table.branches[inVC];
+		ATMCell copy;
+		
+		for(int i = 0; i < branches.length; i++){
+			copy = i == branches.length - 1 ? cell : cell.replicate();
+			if(branches[i].port == TERMINATED){
+				this.reassemble(copy, table, inVC);
+				this.cellsTerminated++;
+				this.cellDeadEnd(copy);
+			}
+			else{
+				copy.setVC(branches[i].vc);
+				this.nics.get(branches[i].port).sendCell(copy, this);
+			}
+		}
+	}
+	
+	/**
+	 * Puts a cell on a connection that ends here back into its packet.  Input VCs are only
+	 * unique per port, so each port and VC is reassembled on its own channel, given out the
+	 * first time a cell ends here on it.
+	 * @param cell the cell that arrived
+	 * @param table the port table of the nic the cell came in on
+	 * @param inVC the VC the cell came in on
+	 */
+	private void reassemble(ATMCell cell, PortTable table, int inVC){
+		if(table.reassemblyChannel[inVC] == 0)
+			table.reassemblyChannel[inVC] = ++this.reassemblyChannels;
+		this.reassembler.receiveCell(cell, table.reassemblyChannel[inVC], this.time);
+	}
+	
+	/**
+	 * Switches a cell on a virtual path.  If the path passes through this router the cell is 
+	 * given its new VPI and sent on without looking at its VC.  If the path ends here the cell
+	 * is handed in as if it came in on the path's own nic, to be switched on its VC.
+	 * @param cell the cell that arrived at this router
+	 * @param nic the nic that the cell arrived on
+	 */
+	private void switchVP(ATMCell cell, ATMNIC nic){
+		PortTable table = this.portTables.get(nic.getPort());
+		int vpi = cell.getVPI();
+		int port = vpi > 0 && vpi < table.vpOutPort.length ? table.vpOutPort[vpi] : NOT_SWITCHED;
+		
+		if(port < 0){
+			this.cellsUnknownVC++;
+			System.out.println("Trace (ATMRouter): Dropped an ATM cell because it was on an unknown VP " + vpi);
+			return;
+		}
+		cell.setVPI(table.vpOutVPI[vpi]);
+		//an output VPI of 0 means the path ends at this router
+		if(table.vpOutVPI[vpi] == 0)
+			this.receiveCell(cell, this.nics.get(port));
+		else{
+			this.cellsVPSwitched++;
+			this.nics.get(port).sendCell(cell, this);
+		}
+	}
+	
 	/**
 	 * This method returns a sequentially increasing random trace ID, so that we can
 	 * differentiate cells in the network
@@ -88,6 +207,15 @@ public class ATMRouter implements IATMCellConsumer{
 		return ret;
 	}
 	
+	/**
+	 * Returns the reassembly layer for the VCs that end at this router, which counts the 
+	 * packets that were received on them
+	 * @return the reassembly layer for the VCs that end at this router
+	 */
+	public AAL5Reassembler getReassembler(){
+		return this.reassembler;
+	}
+	
 	/**
 	 * Tells the router the nic to use to get towards a given router on the network
 	 * @param destAddress the destination address of the ATM router
@@ -98,6 +226,218 @@ public class ATMRouter implements IATMCellConsumer{
 		this.nextHop.put(destAddress, outInterface);
 	}
 	
+	/**
+	 * Returns the number of data cells switched from an input VC, on any of the router's nics
+	 * @param vc the input VC
+	 * @return the number of data cells switched from the VC
+	 */
+	public long getCellsSwitched(int vc){
+		long cells = 0;
+		
+		for(int i = 0; i < this.nics.size(); i++)
+			cells += this.getCellsSwitched(this.nics.get(i), vc);
+		return cells;
+	}
+	
+	/**
+	 * Returns the number of data cells switched from an input VC on one nic
+	 * @param nic the nic the cells came in on
+	 * @param vc the input VC
+	 * @return the number of data cells switched from the VC
+	 */
+	public long getCellsSwitched(ATMNIC nic, int vc){
+		PortTable table;
+		
+		if(nic.getPort() < 0 || nic.getPort() >= this.portTables.size() || this.nics.get(nic.getPort()) != nic)
+			return 0;
+		table = this.portTables.get(nic.getPort());
+		return vc >= 0 && vc < table.cellsSwitched.length ? table.cellsSwitched[vc] : 0;
+	}
+	
+	/**
+	 * Returns the number of cells this router switched on their VPI alone, for virtual paths
+	 * that pass through it
+	 * @return the number of cells switched through virtual paths
+	 */
+	public long getCellsVPSwitched(){
+		return this.cellsVPSwitched;
+	}
+	
+	/**
+	 * Returns the number of connections this router released because OAM found their path
+	 * broken (a link stopped looping back loopbacks, or no cells came in for too long)
+	 * @return the number of connections released by OAM
+	 */
+	public long getConnectionsFailed(){
+		return this.connectionsFailed;
+	}
+	
+	/**
+	 * Turns on F5 OAM monitoring of the connections through this router.  Every period ticks
+	 * a segment loopback is sent down each link a connection goes out on, along with a 
+	 * continuity check if no cells came in on the connection to show it is alive.  If a link
+	 * doesn't loop back for failureTicks ticks the connection is released back towards its
+	 * source.  Once a segment F5 cell has come in on a connection (so the router before this
+	 * one is monitoring it too), if nothing comes in on it for failureTicks ticks it is ended
+	 * towards its destination.  Monitoring can be turned on router by router: a connection
+	 * from a router that isn't monitoring, or from a computer, is never timed out here.  The
+	 * timers are kept on a timer wheel, so each tick only costs the connections that are due.
+	 * @param period the number of ticks between the F5 cells sent on each connection
+	 * @param failureTicks the number of ticks a connection can go unheard from (more than 
+	 * period, plus the time a loopback takes to come back)
+	 */
+	public void setOAMMonitoring(int period, int failureTicks){
+		this.oamPeriod = Math.max(1, period);
+		this.oamFailureTicks = Math.max(this.oamPeriod + 1, failureTicks);
+		this.oamTimers = new TimerWheel<Monitor>(this.oamFailureTicks + 1);
+		for(NICVCPair inPair : this.VCtoVC.keySet())
+			this.startMonitor(inPair);
+	}
+	
+	/**
+	 * Returns the end of the virtual path from this router to another one
+	 * @param farEnd the address of the router at the other end of the path
+	 * @return the end of the path at this router, or null if there isn't a path to that router
+	 */
+	public VirtualPathNIC getVirtualPath(int farEnd){
+		return this.virtualPaths.get(farEnd);
+	}
+	
+	/**
+	 * Returns the number of OAM cells this router has received
+	 * @return the number of OAM cells received
+	 */
+	public long getOAMCellsReceived(){
+		return this.oamCellsReceived;
+	}
+	
+	/**
+	 * Returns the number of data cells this router has received
+	 * @return the number of data cells received
+	 */
+	public long getDataCellsReceived(){
+		return this.dataCellsReceived;
+	}
+	
+	/**
+	 * Returns the number of data cells this router dropped because their VC wasn't in use
+	 * @return the number of data cells dropped for an unknown VC
+	 */
+	public long getCellsUnknownVC(){
+		return this.cellsUnknownVC;
+	}
+	
+	/**
+	 * Returns the counters of this router and a snapshot of each of its output ports.
+	 * Can be called while the simulation is running.
+	 * @return the counters in text form, one section per port
+	 */
+	public String exportMetrics(){
+		StringBuilder export = new StringBuilder();
+		
+		export.append("Router ").append(this.address).append(": received ").append(this.dataCellsReceived)
+				.append(" data cells and ").append(this.oamCellsReceived).append(" OAM cells, ")
+				.append(this.cellsTerminated).append(" terminated here, ").append(this.cellsUnknownVC)
+				.append(" dropped for an unknown VC, ").append(this.cellsVPSwitched)
+				.append(" switched through virtual paths, ").append(this.connectionsFailed)
+				.append(" connections released by OAM\n");
+		for(int i = 0; i < this.nics.size(); i++){
+			PortMetrics port = this.nics.get(i).getMetrics().snapshot();
+			export.append("Port ").append(i).append(": ").append(port).append('\n').append(port.toCSV());
+		}
+		return export.toString();
+	}
+	
+	/**
+	 * Tells the router it can no longer get to a given router on the network
+	 * @param destAddress the destination address of the ATM router
+	 */
+	public void removeNextHopInterface(int destAddress){
+		this.nextHop.remove(destAddress);
+	}
+	
+	/**
+	 * Returns the address of this router
+	 * @return the address of this router
+	 */
+	public int getAddress(){
+		return this.address;
+	}
+	
+	/**
+	 * Sets the link state routing this router is part of
+	 * @param topology the topology database the router was added to
+	 */
+	void setTopology(TopologyDatabase topology){
+		this.topology = topology;
+	}
+	
+	/**
+	 * Tells the router the nic a neighbouring router is connected to, for source routed setups
+	 * @param neighborAddress the address of the neighbouring router
+	 * @param nic the nic the neighbour is connected to
+	 */
+	void addNeighbor(int neighborAddress, ATMNIC nic){
+		this.neighbors.put(neighborAddress, nic);
+	}
+	
+	/**
+	 * Cross connects a virtual path through this router.  Cells that come in on one nic with
+	 * the input VPI go out on the other with the output VPI, whatever VC they are on.
+	 * @param inNIC the nic the path comes in on
+	 * @param inVPI the VPI of the path on the way in
+	 * @param outNIC the nic the path goes out on
+	 * @param outVPI the VPI of the path on the way out (0 if the path ends at this router)
+	 */
+	void connectVP(ATMNIC inNIC, int inVPI, ATMNIC outNIC, int outVPI){
+		PortTable table = this.portTables.get(inNIC.getPort());
+		
+		table.growVP(inVPI);
+		table.vpOutPort[inVPI] = outNIC.getPort();
+		table.vpOutVPI[inVPI] = outVPI;
+	}
+	
+	/**
+	 * Ends a virtual path at this router.  The path gets a nic of its own, which setups for the
+	 * router at the other end of the path are sent out of.  Connection admission control on
+	 * the path's nic keeps the calls on the path within the bandwidth reserved for it.
+	 * @param physicalNIC the nic the path leaves this router on
+	 * @param inVPI the VPI of the path on cells coming in
+	 * @param outVPI the VPI of the path on cells going out
+	 * @param farEnd the address of the router at the other end of the path
+	 * @param traffic the traffic contract of the path
+	 * @return the path's nic
+	 */
+	VirtualPathNIC endVP(ATMNIC physicalNIC, int inVPI, int outVPI, int farEnd, TrafficDescriptor traffic){
+		VirtualPathNIC vpNIC = new VirtualPathNIC(this, physicalNIC, outVPI, farEnd);
+		
+		vpNIC.setLinkCapacity(physicalNIC.getEquivalentBandwidth(traffic));
+		this.connectVP(physicalNIC, inVPI, vpNIC, 0);
+		this.virtualPaths.put(farEnd, vpNIC);
+		return vpNIC;
+	}
+	
+	/**
+	 * Sets whether setups that enter the network at this router are source routed.  The
+	 * router works out the whole path from the topology database, taking the connection's
+	 * bandwidth into account, and puts it in the setup as a designated transit list.
+	 * The routers on the path just follow the list.  If a router on the path can't admit
+	 * the connection, the setup is cranked back here and another path is tried.
+	 * Only works for routers that have been added to a topology database.
+	 * @param sourceRouting true to source route setups, false to route them hop by hop
+	 */
+	public void setSourceRouting(boolean sourceRouting){
+		this.sourceRouting = sourceRouting;
+	}
+	
+	/**
+	 * Returns the nics in this router (used for neighbour discovery)
+	 * @return the nics in this router
+	 */
+	ArrayList<ATMNIC> getNICs(){
+		return this.nics;
+	}
+	
 	/**
 	 * Makes each nic move its cells from the output buffer across the link to the next router's nic
 	 * @since 1.0
@@ -112,6 +452,10 @@ public class ATMRouter implements IATMCellConsumer{
 	 * @since 1.0
 	 */
 	public void clearInputBuffers(){
+		this.time++;
+		this.runSetupTimers();
+		this.runOAMTimers();
+		this.reassembler.expire(this.time);
 		for(int i=0; i<this.nics.size(); i++)
 			this.nics.get(i).clearInputBuffers();
 	}
@@ -182,75 +526,147 @@ public class ATMRouter implements IATMCellConsumer{
 	}
 	
 	/**
-	 * sends a call proceeding signal to a downstream nic.  Prints the 
+	 * sends a signal to a neighbouring nic.  Prints the 
 	 * message corresponding to the signal before transmission. 
 	 * @param nic - the nic on which the signal will be sent
-	 * @param signal - a string representation of the signal to be sent.
-	 * valid values for signal:
-	 * "call proceeding"
-	 * "setup <dest. address>"
-	 * "setup ack
-	 * "wait"
-	 * "connect <vc number>"
-	 * "connect ack"
-	 * "end <vc number>"
-	 * "end ack"
+	 * @param signal - the signal to be sent.
+	 * @param operand - the destination address for WAIT, the vc number for
+	 * CONNECT and END, the cause code for RELEASE.  Ignored for the other signals.
+	 * @param callRef - the call reference the signal belongs to (0 for END and END_ACK)
 	 * @param oldCell - the cell which this signal is being sent in response to
-	 * @remarks if the value of signal is not on the list above, the router will 
-	 * drop the cell.
 	 */
-	private void sendSignal(ATMNIC nic, String signal, ATMCell oldCell){
+	private void sendSignal(ATMNIC nic, OAMType signal, int operand, int callRef, ATMCell oldCell){
 		//Create the cell to send
 		ATMCell sigCell = null; 
 		
-		if(signal.contains("call proceeding")){
-			sigCell = new ATMCell(0, signal, this.traceID++);
-			sigCell.setIsOAM(true);
+		switch(signal){
+		case CALL_PROCEEDING:
+			sigCell = new ATMCell(0, signal, -1, -1, this.traceID++);
 			sentCallProceeding(sigCell);
-		}
-		else if(signal.contains("setup")){
-			sigCell = new ATMCell(0, signal, oldCell.getTraceID());
-			sigCell.setIsOAM(true);
-			sentSetup(sigCell);
-		}
-		else if(signal.contains("wait")){
-			sigCell = new ATMCell(0, signal, this.traceID++);
-			sigCell.setIsOAM(true);
+			break;
+		case WAIT:
+			sigCell = new ATMCell(0, signal, operand, -1, this.traceID++);
 			sentWait(sigCell);
-		}
-		else if(signal.contains("connect")){
-			sigCell = new ATMCell(0, signal, this.traceID++);
-			sigCell.setIsOAM(true);
-			if(signal.contains("ack")) sentConnectAck(sigCell);
-			else sentConnect(sigCell);
-		}
-		else if(signal.contains("end")){
-			sigCell = new ATMCell(0,signal,oldCell.getTraceID());
-			sigCell.setIsOAM(true);
-			if(signal.contains("ack")) sentEndAck(sigCell);
-			else sentEnd(sigCell);
-		}
-		else{
+			break;
+		case CONNECT:
+			sigCell = new ATMCell(0, signal, -1, operand, this.traceID++);
+			sentConnect(sigCell);
+			break;
+		case CONNECT_ACK:
+			sigCell = new ATMCell(0, signal, -1, -1, this.traceID++);
+			sentConnectAck(sigCell);
+			break;
+		case END:
+			sigCell = new ATMCell(0, signal, -1, operand, oldCell.getTraceID());
+			sentEnd(sigCell);
+			break;
+		case END_ACK:
+			sigCell = new ATMCell(0, signal, -1, -1, oldCell.getTraceID());
+			sentEndAck(sigCell);
+			break;
+		case RELEASE:
+			sigCell = new ATMCell(0, signal, -1, -1, oldCell.getTraceID());
+			sigCell.setOAMCause(ReleaseCause.fromCode(operand));
+			sigCell.setOAMCrankback(oldCell.getOAMCrankbackFrom(), oldCell.getOAMCrankbackTo());
+			sentRelease(sigCell);
+			break;
+		default:
 			System.err.println("Router " + address + "tried to send an unknown signal");
 			return;
 		}
+		sigCell.setOAMCallRef(callRef);
 		nic.sendCell(sigCell, this);
 	}
 	
 	/**
-	 * Process a setup signal.  The router will forward a setup message from
-	 * any NIC which is not in the process of setting up a connection already.
+	 * Sends a party signal (add party, add party ack, add party reject or drop party) for a 
+	 * point to multipoint connection
+	 * @param nic - the nic on which the signal will be sent
+	 * @param signal - the signal to be sent
+	 * @param vc - the VC of the connection on the link the signal is sent on
+	 * @param party - the address of the party being added or dropped
+	 * @param callRef - the call handle the root gave the connection
+	 * @param cause - why the party was rejected (null for the other signals)
+	 * @param oldCell - the cell which this signal is being sent in response to
+	 */
+	private void sendPartySignal(ATMNIC nic, OAMType signal, int vc, int party, int callRef, 
+			ReleaseCause cause, ATMCell oldCell){
+		ATMCell sigCell = new ATMCell(0, signal, party, vc, oldCell.getTraceID());
+		
+		sigCell.setOAMCallRef(callRef);
+		sigCell.setOAMTraffic(oldCell.getOAMTraffic());
+		if(cause != null)
+			sigCell.setOAMCause(cause);
+		sentPartySignal(sigCell);
+		nic.sendCell(sigCell, this);
+	}
+	
+	/**
+	 * Sends the setup for a pending setup downstream, under this router's call reference 
+	 * for it and with the rest of its designated transit list (if it is source routed)
+	 * @param pending - the setup to be sent
+	 */
+	private void sendSetup(PendingSetup pending){
+		ATMCell sigCell = new ATMCell(0, OAMType.SETUP, pending.destAddress, -1, pending.setupCell.getTraceID());
+		
+		sigCell.setOAMTraffic(pending.setupCell.getOAMTraffic());
+		sigCell.setOAMCallRef(pending.callRef);
+		if(pending.dtl != null)
+			sigCell.setOAMDTL(pending.dtl, pending.dtlIndex);
+		sentSetup(sigCell);
+		pending.downstreamNIC.sendCell(sigCell, this);
+		this.scheduleSetup(pending, this.time + SETUP_TIMEOUT, false);
+	}
+	
+	/**
+	 * Puts a setup on the retry heap for the next thing that has to happen to it
+	 * @param pending - the setup
+	 * @param time - when it has to happen
+	 * @param backingOff - true if the setup is to be resent then, false if it is to be given up on
+	 */
+	private void scheduleSetup(PendingSetup pending, int time, boolean backingOff){
+		if(pending.queued)
+			setupRetries.remove(pending);
+		pending.retryTime = time;
+		pending.backingOff = backingOff;
+		pending.queued = true;
+		setupRetries.add(pending);
+	}
+	
+	/**
+	 * Answers a source routed setup that can't go any further with a release that cranks
+	 * back to the router that built the path
+	 * @param nic - the nic the setup came in on
+	 * @param cause - why the setup can't go any further
+	 * @param blockedAt - the address of the router the setup couldn't get to
+	 * @param cell - the setup cell
+	 */
+	private void sendCrankback(ATMNIC nic, ReleaseCause cause, int blockedAt, ATMCell cell){
+		ATMCell sigCell = new ATMCell(0, OAMType.RELEASE, -1, -1, cell.getTraceID());
+		
+		sigCell.setOAMCause(cause);
+		sigCell.setOAMCrankback(this.address, blockedAt);
+		sigCell.setOAMCallRef(cell.getOAMCallRef());
+		sentRelease(sigCell);
+		nic.sendCell(sigCell, this);
+	}
+	
+	/**
+	 * Process a setup signal.  The router forwards the setup towards the destination
+	 * under a call reference of its own and remembers which nic (and call reference)
+	 * the setup came from, so any number of setups can be in progress at once.  Only
+	 * when the pending setup table is full is a wait sent back.
 	 * If this is the destination router, it establishes a VC and forwards a 
 	 * connect signal back down the path.
 	 * @param cell - the cell containing the setup signal
 	 * @param nic - the nic which the cell came from
 	 */
 	private void processSetup(ATMCell cell, ATMNIC nic){
-		String cellData = cell.getData();
 		ATMNIC nextHopNIC;
+		VirtualPathNIC vpNIC;
 		int destAddress;
 		
-		destAddress =getIntFromEndOfString(cellData);
+		destAddress = cell.getOAMDest();
 		/*check for bad setup message format*/
 		if(destAddress == -1){
 			this.receivedBadCell(cell);
@@ -258,61 +674,170 @@ public class ATMRouter implements IATMCellConsumer{
 		}
 		
 		receivedSetup(cell);
-		//check whether this NIC is busy or not and send wait() if it is
-		if(currentConnAttemptNIC != null){
-			sendSignal(nic,"wait " + destAddress,cell);
+		//check whether this router can take on another setup and send wait() if it can't
+		if(pendingSetups.size() >= maxPendingSetups){
+			sendSignal(nic, OAMType.WAIT, destAddress, cell.getOAMCallRef(), cell);
 		}
 		//set up the outgoing NIC
 		else{
-			sendSignal(nic,"call proceeding",cell);
+			sendSignal(nic, OAMType.CALL_PROCEEDING, -1, cell.getOAMCallRef(), cell);
 			nextHopNIC = nextHop.get(destAddress);
+			vpNIC = virtualPaths.get(destAddress);
+			//source routed setups follow their transit list
+			if(destAddress != this.address && cell.getOAMDTL() != null){
+				this.forwardSourceRouted(cell, nic);
+			}
+			//setups for the router at the other end of a virtual path go down the path, if it has room
+			else if(vpNIC != null && vpNIC.reserveBandwidth(cell.getOAMTraffic())){
+				PendingSetup pending = new PendingSetup(nic, cell.getOAMCallRef(), 
+						vpNIC, this.nextCallRef++, destAddress, cell);
+				pendingSetups.put(pending.callRef, pending);
+				sendSetup(pending);
+			}
+			//setups entering the network here get a transit list if this router source routes
+			else if(destAddress != this.address && this.sourceRouting && this.topology != null){
+				this.originateSourceRouted(cell, nic);
+			}
 			//check if the dest. address has been entered into this router's tables
-			if(nextHopNIC != null){
-				currentConnAttemptNIC = nic;
-				sendSignal(nextHopNIC, "setup " + destAddress, cell);
+			else if(nextHopNIC != null){
+				//connection admission control on the link the setup is going out on
+				if(!nextHopNIC.reserveBandwidth(cell.getOAMTraffic())){
+					sendSignal(nic, OAMType.RELEASE, ReleaseCause.CELL_RATE_UNAVAILABLE.getCode(), 
+							cell.getOAMCallRef(), cell);
+					return;
+				}
+				PendingSetup pending = new PendingSetup(nic, cell.getOAMCallRef(), 
+						nextHopNIC, this.nextCallRef++, destAddress, cell);
+				pendingSetups.put(pending.callRef, pending);
+				sendSetup(pending);
 			}
 			//if this is the destination router.
 			else if(destAddress == this.address){
-				int inVC = calcInVC();
+				int inVC = calcInVC(nic);
+				if(inVC == -1){
+					this.outOfVCs(cell);
+					sendSignal(nic, OAMType.RELEASE, ReleaseCause.VC_UNAVAILABLE.getCode(), 
+							cell.getOAMCallRef(), cell);
+					return;
+				}
 				System.out.println("Trace (ATMRouter): First free VC = " + inVC);
 				//set up a VC to use and forward that back down the way.
-				sendSignal(nic,"connect " + inVC,cell);
+				sendSignal(nic, OAMType.CONNECT, inVC, cell.getOAMCallRef(), cell);
+				if(nic.isUserSide())
+					nic.policeVC(inVC, cell.getOAMTraffic());
 				//the null entry signifies that this is a terminal point for a VC
-				VCtoVC.put(inVC, null);
+				this.setSwitchEntry(nic, inVC, null, this.address);
 			}
+			//the call proceeding has already gone back, so the setup has to be released
 			else{
 				gotUnknownAddress(cell);
-				return;
+				sendSignal(nic, OAMType.RELEASE, ReleaseCause.NO_ROUTE.getCode(), 
+						cell.getOAMCallRef(), cell);
 			}
 		}
 	}
 	
 	/**
-	 * calculates the next available input VC.  Uses a linear scan over the values in the VCtoVC map.
-	 * @return the endpoint VC if one can be found. -1 if all integers are already in use.
+	 * Forwards a source routed setup to the next router on its transit list.  There is no
+	 * routing table lookup, the next hop is just taken off the list.  If the link to it is
+	 * down or can't admit the connection, the setup is cranked back.
+	 * @param cell - the cell containing the setup signal
+	 * @param nic - the nic which the cell came from
+	 */
+	private void forwardSourceRouted(ATMCell cell, ATMNIC nic){
+		int[] dtl = cell.getOAMDTL();
+		int index = cell.getOAMDTLIndex();
+		ATMNIC outNIC;
+		PendingSetup pending;
+		
+		if(index >= dtl.length){
+			sendCrankback(nic, ReleaseCause.NO_ROUTE, -1, cell);
+			return;
+		}
+		outNIC = neighbors.get(dtl[index]);
+		if(outNIC == null || !outNIC.getLink().isUp()){
+			sendCrankback(nic, ReleaseCause.NO_ROUTE, dtl[index], cell);
+			return;
+		}
+		if(!outNIC.reserveBandwidth(cell.getOAMTraffic())){
+			sendCrankback(nic, ReleaseCause.CELL_RATE_UNAVAILABLE, dtl[index], cell);
+			return;
+		}
+		pending = new PendingSetup(nic, cell.getOAMCallRef(), outNIC, this.nextCallRef++, 
+				cell.getOAMDest(), cell);
+		pending.dtl = dtl;
+		pending.dtlIndex = index + 1;
+		pendingSetups.put(pending.callRef, pending);
+		sendSetup(pending);
+	}
+	
+	/**
+	 * Starts a source routed setup from this router.  If no path can be found the setup 
+	 * is released, with NO_ROUTE if the destination can't be reached at all and
+	 * CELL_RATE_UNAVAILABLE if every path to it was refused for bandwidth.
+	 * @param cell - the cell containing the setup signal
+	 * @param nic - the nic which the cell came from
+	 */
+	private void originateSourceRouted(ATMCell cell, ATMNIC nic){
+		PendingSetup pending = new PendingSetup(nic, cell.getOAMCallRef(), null, 0, 
+				cell.getOAMDest(), cell);
+		ReleaseCause cause;
+		
+		pending.blocked = new HashSet<Long>();
+		if(this.routeSourceSetup(pending))
+			return;
+		if(topology.getDistance(this.address, cell.getOAMDest()) < 0)
+			cause = ReleaseCause.NO_ROUTE;
+		else
+			cause = ReleaseCause.CELL_RATE_UNAVAILABLE;
+		sendSignal(nic, OAMType.RELEASE, cause.getCode(), cell.getOAMCallRef(), cell);
+	}
+	
+	/**
+	 * Works out a path for a setup this router is source routing, avoiding the links it has
+	 * been cranked back from, and sends the setup down it under a new call reference
+	 * @param pending - the setup being source routed
+	 * @return true if the setup was sent, false if there is no path left
 	 */
-	private int calcInVC() {
-		//find the next available input VC
-		for(int i = 1;i < Integer.MAX_VALUE;i++){
-			if(!VCtoVC.containsKey(i)){
-				return i;
+	private boolean routeSourceSetup(PendingSetup pending){
+		TrafficDescriptor traffic = pending.setupCell.getOAMTraffic();
+		int[] path;
+		ATMNIC outNIC;
+		
+		while((path = topology.findPath(this.address, pending.destAddress, traffic, pending.blocked)) != null){
+			outNIC = neighbors.get(path[0]);
+			if(outNIC != null && outNIC.reserveBandwidth(traffic)){
+				pending.downstreamNIC = outNIC;
+				pending.dtl = path;
+				pending.dtlIndex = 1;
+				pending.callRef = this.nextCallRef++;
+				pendingSetups.put(pending.callRef, pending);
+				sendSetup(pending);
+				return true;
 			}
+			pending.blocked.add(TopologyDatabase.linkKey(this.address, path[0]));
 		}
-		return -1;
+		return false;
 	}
 	
 	/**
-	 * calculates the next available output VC.  Uses a linear scan over the values in the VCtoVC map.
+	 * calculates the next available input VC.  Takes the lowest free VC from the input
+	 * VC allocator of the given nic.
+	 * @param nic the nic for which the incoming VC is being calculated.
+	 * @return the endpoint VC if one can be found. -1 if all VCs are already in use.
+	 */
+	private int calcInVC(ATMNIC nic) {
+		return nic.getInVCs().allocate();
+	}
+	
+	/**
+	 * calculates the next available output VC.  Takes the lowest free VC from the output
+	 * VC allocator of the given nic.
 	 * @param nic the nic for which the outgoing VC is being calculated.
-	 * @return the endpoint VC if one can be found. -1 if all integers are already in use.
+	 * @return the endpoint VC if one can be found. -1 if all VCs are already in use.
 	 */
 	private int calcOutVC(ATMNIC nic) {
-		for(int i = 1; i< Integer.MAX_VALUE;i++){
-			if(!VCtoVC.containsValue(new NICVCPair(nic, i))){
-				return i;
-			}
-		}
-		return -1;
+		return nic.getOutVCs().allocate();
 	}
 
 	/**
@@ -324,61 +849,94 @@ public class ATMRouter implements IATMCellConsumer{
 	}
 	
 	/**
-	 * Processes the connect signal.  First searches the ATM lookup table 
+	 * Processes the connect signal.  The call reference in the signal picks out the
+	 * pending setup it answers.  Then searches the ATM lookup table 
 	 * for the proposed VC.  If the proposed VC is found, a new VC is mapped
 	 * onto the proposed VC.  Once the VC mapping is established, a connect
-	 * ack is sent back upstream and a new connect message is sent downstream.
+	 * ack is sent back upstream and a new connect message is sent downstream
+	 * to the nic the setup came from.  If no VC is free the connection is ended
+	 * towards its destination and released back towards its source.
 	 * @param cell the cell containing the connect signal
 	 * @param nic the nic from which this signal was received
 	 */
 	private void processConnect(ATMCell cell, ATMNIC nic){
-		String cellData = cell.getData();
-		int proposedVC = getIntFromEndOfString(cellData);
+		int proposedVC = cell.getOAMVC();
 		NICVCPair nicVCPair = new NICVCPair(nic, proposedVC);
+		PendingSetup pending = pendingSetups.remove(cell.getOAMCallRef());
 		int nextInVC;
 		
 		receivedConnect(cell);
+		if(pending == null){
+			this.unknownCallRef(cell);
+			return;
+		}
+		//the connect for a new branch of a point to multipoint connection
+		if(pending.partyOf != null){
+			this.connectBranch(cell, nic, pending);
+			return;
+		}
 		
 		//if the nic/VC pairing is already in the map
-		if(VCtoVC.containsValue(nicVCPair)){
+		if(outToInVC.containsKey(nicVCPair)){
 			//need to come up with a new output VC
 			nicVCPair = new NICVCPair(nic,calcOutVC(nic));		
 		}
-		nextInVC = calcInVC();
-		VCtoVC.put(nextInVC, nicVCPair);
+		else nic.getOutVCs().claim(proposedVC);
+		nextInVC = calcInVC(pending.upstreamNIC);
+		if(nextInVC == -1 || nicVCPair.getVC() == -1){
+			nic.getOutVCs().release(nicVCPair.getVC());
+			pending.upstreamNIC.getInVCs().release(nextInVC);
+			nic.releaseBandwidth(pending.setupCell.getOAMTraffic());
+			this.outOfVCs(cell);
+			//the routers downstream already set the connection up, so it is ended there
+			sendSignal(nic, OAMType.CONNECT_ACK, -1, pending.callRef, cell);
+			sendSignal(nic, OAMType.END, proposedVC, 0, cell);
+			sendSignal(pending.upstreamNIC, OAMType.RELEASE, ReleaseCause.VC_UNAVAILABLE.getCode(), 
+					pending.upstreamCallRef, cell);
+			return;
+		}
+		this.setSwitchEntry(pending.upstreamNIC, nextInVC, nicVCPair, pending.destAddress);
+		//queue the connection's cells according to the traffic contract it was set up with
+		nic.openVC(nicVCPair.getVC(), pending.setupCell.getOAMTraffic());
 		
 		//print a message indicating choice of VC->VC mapping
-		labelsSelected(nextInVC,VCtoVC.get(nextInVC));
+		labelsSelected(nextInVC,nicVCPair);
 		
 		//send a connect ack message
-		sendSignal(nic,"connect ack",cell);
+		sendSignal(nic, OAMType.CONNECT_ACK, -1, pending.callRef, cell);
 		
 		//forward the connect to the next router/computer
-		sendSignal(currentConnAttemptNIC,"connect " + nextInVC,cell);
+		sendSignal(pending.upstreamNIC, OAMType.CONNECT, nextInVC, pending.upstreamCallRef, cell);
 		
-		//setting this to null indicates this router is free to process
-		//setup messages again.
-		currentConnAttemptNIC = null;
+		//hold the computer that asked for the connection to its contract
+		if(pending.upstreamNIC.isUserSide())
+			pending.upstreamNIC.policeVC(nextInVC, pending.setupCell.getOAMTraffic());
 	}
 	
 	/**
 	 * Process the wait signal.  Receiving the wait signal means that a router
-	 * on the path to the destination is busy setting up another connection.  
-	 * Just resends the setup request ad infinitum until a setup ack is received.
+	 * on the path to the destination has too many setups in progress.  
+	 * The setup is resent after a back off that doubles with every wait the call
+	 * gets (up to MAX_BACKOFF time units), until a connect is received.
 	 * @param cell - the cell carrying the wait signal
 	 * @param nic - the nic on which the wait signal was received
 	 */
 	private void processWait(ATMCell cell, ATMNIC nic){
-		String cellData;
 		int destAddress;
+		PendingSetup pending;
 		
 		if(cell != null && nic != null){
-			cellData = cell.getData();
-			destAddress = getIntFromEndOfString(cellData);
+			destAddress = cell.getOAMDest();
 			//check if destAdress was screwed up
 			if(destAddress != -1){
 				receivedWait(cell);
-				sendSignal(nic,"setup " + destAddress,cell);
+				pending = pendingSetups.get(cell.getOAMCallRef());
+				if(pending == null){
+					this.unknownCallRef(cell);
+					return;
+				}
+				pending.waits++;
+				this.scheduleSetup(pending, this.time + Math.min(1 << Math.min(pending.waits - 1, 30), MAX_BACKOFF), true);
 			}
 			else receivedBadCell(cell);
 		}
@@ -387,6 +945,246 @@ public class ATMRouter implements IATMCellConsumer{
 		}
 	}
 	
+	/**
+	 * Resends the setups whose back off has run out, and gives up on the ones whose setup
+	 * timer has run out.
+	 */
+	private void runSetupTimers(){
+		PendingSetup pending;
+		
+		while(!setupRetries.isEmpty() && setupRetries.peek().retryTime <= this.time){
+			pending = setupRetries.poll();
+			pending.queued = false;
+			//the call may have been connected or released since
+			if(pendingSetups.get(pending.callRef) != pending)
+				continue;
+			if(pending.backingOff)
+				sendSetup(pending);
+			else
+				this.setupTimedOut(pending);
+		}
+	}
+	
+	/**
+	 * Gives up on a setup that nothing came back for before its timer ran out (its connect
+	 * or release was lost, i.e. a link went down).  The bandwidth it reserved is given back
+	 * and it is released upstream, or its party rejected if it was for a new branch.
+	 * @param pending - the setup
+	 */
+	private void setupTimedOut(PendingSetup pending){
+		pendingSetups.remove(pending.callRef);
+		pending.downstreamNIC.releaseBandwidth(pending.setupCell.getOAMTraffic());
+		if(this.displayCommands)
+			System.err.println("Router " + this.address + " gave up on the setup for " + 
+					pending.destAddress + " " + pending.setupCell.getTraceID());
+		if(pending.partyOf != null)
+			sendPartySignal(pending.upstreamNIC, OAMType.ADD_PARTY_REJECT, pending.partyOf.getVC(), 
+					pending.destAddress, pending.upstreamCallRef, ReleaseCause.TIMER_EXPIRY, pending.setupCell);
+		else
+			sendSignal(pending.upstreamNIC, OAMType.RELEASE, ReleaseCause.TIMER_EXPIRY.getCode(), 
+					pending.upstreamCallRef, pending.setupCell);
+	}
+	
+	/**
+	 * Moves the OAM timer wheel on a tick and checks the connections that are due
+	 */
+	private void runOAMTimers(){
+		if(this.oamTimers == null)
+			return;
+		this.oamTimers.advance(this.oamExpired);
+		for(Monitor monitor : this.oamExpired)
+			this.checkConnection(monitor);
+		this.oamExpired.clear();
+	}
+	
+	/**
+	 * Starts monitoring a connection, if OAM monitoring is on
+	 * @param inPair - the input NIC/VC pair of the connection
+	 */
+	private void startMonitor(NICVCPair inPair){
+		PortTable table = this.portTables.get(inPair.getNIC().getPort());
+		Monitor monitor;
+		
+		if(this.oamTimers == null)
+			return;
+		monitor = new Monitor(inPair);
+		monitor.nextSend = this.time + this.oamPeriod;
+		monitor.timer = this.oamTimers.schedule(monitor, this.oamPeriod);
+		table.lastCell[inPair.getVC()] = this.time;
+		table.monitors[inPair.getVC()] = monitor;
+	}
+	
+	/**
+	 * Checks a connection whose OAM timer expired.  The connection is released if it failed,
+	 * otherwise its F5 cells are sent if they are due and the timer is set for the next
+	 * time something can happen on the connection.
+	 * @param monitor - the monitor of the connection
+	 */
+	private void checkConnection(Monitor monitor){
+		ATMNIC nic = monitor.inPair.getNIC();
+		int vc = monitor.inPair.getVC(), next;
+		PortTable table = this.portTables.get(nic.getPort());
+		ArrayList<NICVCPair> outputs = this.outputsOf(table, vc);
+		Integer looped;
+		
+		//nothing, not even a continuity check, has come in on the connection for too long
+		if(monitor.upstreamMonitored && this.time - table.lastCell[vc] >= this.oamFailureTicks){
+			this.continuityLost(monitor.inPair);
+			return;
+		}
+		//a link the connection goes out on has stopped looping back
+		monitor.loopedBack.keySet().retainAll(outputs);
+		for(NICVCPair outPair : outputs){
+			looped = monitor.loopedBack.get(outPair);
+			if(looped != null && this.time - looped >= this.oamFailureTicks){
+				this.connectionsFailed++;
+				this.releaseOutput(outPair, this.failureCell());
+				if(table.monitors[vc] != monitor)
+					return;
+			}
+		}
+		if(this.time >= monitor.nextSend){
+			for(NICVCPair outPair : this.outputsOf(table, vc)){
+				if(!monitor.loopedBack.containsKey(outPair))
+					monitor.loopedBack.put(outPair, this.time);
+				this.sendF5(outPair, OAMType.LOOPBACK);
+				if(this.time - table.lastCell[vc] >= this.oamPeriod)
+					this.sendF5(outPair, OAMType.CONTINUITY_CHECK);
+			}
+			monitor.nextSend = this.time + this.oamPeriod;
+		}
+		next = monitor.nextSend;
+		if(monitor.upstreamMonitored)
+			next = Math.min(next, table.lastCell[vc] + this.oamFailureTicks);
+		for(int loopTime : monitor.loopedBack.values())
+			next = Math.min(next, loopTime + this.oamFailureTicks);
+		monitor.timer = this.oamTimers.schedule(monitor, next - this.time);
+	}
+	
+	/**
+	 * Returns the output NIC/VC pairs of a connection (one for each branch that doesn't end here)
+	 * @param table - the port table of the connection's input nic
+	 * @param vc - the input VC of the connection
+	 * @return the outputs of the connection
+	 */
+	private ArrayList<NICVCPair> outputsOf(PortTable table, int vc){
+		ArrayList<NICVCPair> outputs = new ArrayList<NICVCPair>();
+		
+		if(table.outPort[vc] >= 0)
+			outputs.add(new NICVCPair(this.nics.get(table.outPort[vc]), table.outVC[vc]));
+		else if(table.outPort[vc] == MULTIPOINT){
+			for(Branch branch : table.branches[vc])
+				if(branch.port != TERMINATED)
+					outputs.add(new NICVCPair(this.nics.get(branch.port), branch.vc));
+		}
+		return outputs;
+	}
+	
+	/**
+	 * Sends a segment F5 cell down one link of a connection
+	 * @param outPair - the output NIC/VC pair of the connection
+	 * @param type - LOOPBACK or CONTINUITY_CHECK
+	 */
+	private void sendF5(NICVCPair outPair, OAMType type){
+		ATMCell cell = new ATMCell(outPair.getVC(), type, -1, -1, this.traceID++);
+		
+		outPair.getNIC().sendCell(cell, this);
+	}
+	
+	/**
+	 * Returns a release for a connection OAM found broken, to trace the teardown with
+	 * @return the release cell
+	 */
+	private ATMCell failureCell(){
+		ATMCell cell = new ATMCell(0, OAMType.RELEASE, -1, -1, this.traceID++);
+		
+		cell.setOAMCause(ReleaseCause.TEMPORARY_FAILURE);
+		return cell;
+	}
+	
+	/**
+	 * Releases a connection nothing has come in on for too long.  The path upstream of this
+	 * router is broken, so the connection is ended towards its destination, and a release
+	 * is sent upstream in case the router before this one can still be reached.
+	 * @param inPair - the input NIC/VC pair of the connection
+	 */
+	private void continuityLost(NICVCPair inPair){
+		PortTable table = this.portTables.get(inPair.getNIC().getPort());
+		ATMCell cell = this.failureCell();
+		
+		this.connectionsFailed++;
+		if(this.displayCommands)
+			System.out.println("OAM (Router " + this.address + "): loss of continuity on VC " + 
+					inPair.getVC() + ", releasing the connection " + cell.getTraceID());
+		for(NICVCPair outPair : this.outputsOf(table, inPair.getVC()))
+			this.endOutput(inPair.getVC(), outPair, cell);
+		this.releaseInput(inPair, cell);
+	}
+	
+	/**
+	 * Takes one output of an established connection down, because the link it goes out on
+	 * stopped looping back or the router after this one released it.  If nothing is left
+	 * downstream of this router the whole connection is released back towards its source
+	 * (the reverse index finds its input VC).  A point to multipoint connection only loses
+	 * the branch.
+	 * @param outPair - the output NIC/VC pair being taken down
+	 * @param cell - the release that goes with it
+	 */
+	private void releaseOutput(NICVCPair outPair, ATMCell cell){
+		NICVCPair inPair = outToInVC.remove(outPair);
+		ATMNIC outNIC = outPair.getNIC();
+		Branch[] branches;
+		PortTable table;
+		
+		if(inPair == null){
+			cellNoVC(cell);
+			return;
+		}
+		outNIC.getOutVCs().release(outPair.getVC());
+		outNIC.releaseBandwidth(outNIC.getVCTraffic(outPair.getVC()));
+		outNIC.closeVC(outPair.getVC());
+		System.out.println("Trace (ATMRouter): Router " + address + 
+		" removing entry <" + inPair.getVC() + "," + outPair.getVC() + ">");
+		table = this.portTables.get(inPair.getNIC().getPort());
+		if(table.outPort[inPair.getVC()] == MULTIPOINT){
+			branches = table.branches[inPair.getVC()];
+			for(int i = 0; i < branches.length; i++)
+				if(branches[i].port == outNIC.getPort() && branches[i].vc == outPair.getVC()){
+					this.removeBranch(inPair, i);
+					break;
+				}
+			if(table.branches[inPair.getVC()].length > 0)
+				return;
+		}
+		this.releaseInput(inPair, cell);
+	}
+	
+	/**
+	 * Takes the input side of a connection out of this router and sends a release for it
+	 * upstream, on its VC
+	 * @param inPair - the input NIC/VC pair of the connection
+	 * @param cell - the release that goes with it
+	 */
+	private void releaseInput(NICVCPair inPair, ATMCell cell){
+		ATMCell sigCell = new ATMCell(0, OAMType.RELEASE, -1, inPair.getVC(), cell.getTraceID());
+		
+		inPair.getNIC().unpoliceVC(inPair.getVC());
+		this.removeSwitchEntry(inPair);
+		inPair.getNIC().getInVCs().release(inPair.getVC());
+		sigCell.setOAMCause(cell.getOAMCause());
+		sentRelease(sigCell);
+		inPair.getNIC().sendCell(sigCell, this);
+	}
+	
+	/**
+	 * Sets the number of setups this router will have in progress at once before it 
+	 * starts answering new setups with wait
+	 * @param maxPendingSetups the number of setups that can be in progress at once
+	 */
+	public void setMaxPendingSetups(int maxPendingSetups){
+		this.maxPendingSetups = maxPendingSetups;
+	}
+	
 	/**
 	 * Process the "connect ack" signal.  Prints to terminal to verify to user that
 	 * the signal was received.
@@ -401,14 +1199,15 @@ public class ATMRouter implements IATMCellConsumer{
 	 * the signal and passes the signal to the next router on the corresponding output VC.
 	 * Once the VC has been deleted, an "end ack" signal is sent back to the originating router.
 	 * If the input VC does not exist at this router, cellNoVC() is called.  If this router
-	 * is the terminal point for this VC, the signal is not forwarded. 
+	 * is the terminal point for this VC, the signal is not forwarded.  A point to multipoint
+	 * connection is ended down all of its branches.
 	 * @param cell - the cell containing the signal
 	 * @param nic - the NIC from which the signal was received
 	 */
 	private void processEnd(ATMCell cell, ATMNIC nic){
-		String cellData = cell.getData();
-		int endVC = getIntFromEndOfString(cellData);
-		int outVC; //The VC which endVC is mapped to (if any)
+		int endVC = cell.getOAMVC();
+		PortTable table; //The port table endVC is switched by
+		NICVCPair inPair = new NICVCPair(nic, endVC); //The incoming NIC/VC pairing being ended
 		NICVCPair outPair; //The outgoing NIC/VC pairing (if it exists)
 		
 		this.recieveEnd(cell);
@@ -419,23 +1218,29 @@ public class ATMRouter implements IATMCellConsumer{
 			return;
 		}
 		
-		if(VCtoVC.containsKey(endVC)){
+		if(VCtoVC.containsKey(inPair)){
 			//The "end" signal was for a valid VC number
-			sendSignal(nic, "end ack", cell);
+			sendSignal(nic, OAMType.END_ACK, -1, 0, cell);
 			
-			outPair = VCtoVC.get(endVC);
+			outPair = VCtoVC.get(inPair);
+			table = this.portTables.get(nic.getPort());
 			
-			if(outPair != null){ //if outPair == null, this is the end of the circuit
-				outVC = outPair.getVC();
-				sendSignal(outPair.getNIC(), "end " + outVC, cell);
-				System.out.println("Trace (ATMRouter): Router " + address + 
-				" removing entry <" + endVC + "," + outVC + ">");
+			//a point to multipoint connection is ended down every one of its branches
+			if(table.outPort[endVC] == MULTIPOINT){
+				for(Branch branch : table.branches[endVC])
+					if(branch.port != TERMINATED)
+						this.endOutput(endVC, new NICVCPair(this.nics.get(branch.port), branch.vc), cell);
+			}
+			else if(outPair != null){ //if outPair == null, this is the end of the circuit
+				this.endOutput(endVC, outPair, cell);
 			}
 			else{
 				System.out.println("Trace (ATMRouter): VC " + endVC + " torn down.");
 			}
 			//evict the entry from the VC table.
-			VCtoVC.remove(endVC);
+			nic.unpoliceVC(endVC);
+			this.removeSwitchEntry(inPair);
+			nic.getInVCs().release(endVC);
 			
 		}
 		else{
@@ -444,6 +1249,357 @@ public class ATMRouter implements IATMCellConsumer{
 		}
 	}
 	
+	/**
+	 * Tears down one output of a connection, giving back its VC and bandwidth and passing
+	 * the end on to the next router
+	 * @param inVC - the input VC of the connection (for the trace)
+	 * @param outPair - the output NIC/VC pair being torn down
+	 * @param cell - the cell containing the end (or drop party) signal
+	 */
+	private void endOutput(int inVC, NICVCPair outPair, ATMCell cell){
+		ATMNIC outNIC = outPair.getNIC();
+		int outVC = outPair.getVC();
+		
+		outNIC.getOutVCs().release(outVC);
+		outNIC.releaseBandwidth(outNIC.getVCTraffic(outVC));
+		outNIC.closeVC(outVC);
+		outToInVC.remove(outPair);
+		sendSignal(outNIC, OAMType.END, outVC, 0, cell);
+		System.out.println("Trace (ATMRouter): Router " + address + 
+		" removing entry <" + inVC + "," + outVC + ">");
+	}
+	
+	/**
+	 * Process the add party signal.  The root of a connection is adding another party to it, 
+	 * which makes it a point to multipoint connection.  If one of the connection's branches 
+	 * already heads towards the party the signal is passed on down that branch.  Otherwise
+	 * this router is where the party branches off, and a setup is sent towards the party for 
+	 * a new branch.  If the party is this router, cells are copied to this router as well.
+	 * @param cell - the cell containing the add party signal
+	 * @param nic - the nic on which the add party signal was received
+	 */
+	private void processAddParty(ATMCell cell, ATMNIC nic){
+		int vc = cell.getOAMVC(), party = cell.getOAMDest();
+		NICVCPair inPair = new NICVCPair(nic, vc);
+		ATMNIC nextHopNIC;
+		Branch[] branches;
+		PendingSetup pending;
+		
+		receivedPartySignal(cell);
+		if(party < 0 || !VCtoVC.containsKey(inPair)){
+			cellNoVC(cell);
+			return;
+		}
+		branches = this.toMultipoint(this.portTables.get(nic.getPort()), vc);
+		//the party may already be on the connection
+		for(Branch branch : branches)
+			if(branch.port == TERMINATED && branch.parties.contains(party)){
+				sendPartySignal(nic, OAMType.ADD_PARTY_ACK, vc, party, cell.getOAMCallRef(), null, cell);
+				return;
+			}
+		if(party == this.address){
+			this.addBranch(this.portTables.get(nic.getPort()), vc, new Branch(TERMINATED, -1, party));
+			sendPartySignal(nic, OAMType.ADD_PARTY_ACK, vc, party, cell.getOAMCallRef(), null, cell);
+			return;
+		}
+		nextHopNIC = nextHop.get(party);
+		if(nextHopNIC == null){
+			gotUnknownAddress(cell);
+			sendPartySignal(nic, OAMType.ADD_PARTY_REJECT, vc, party, cell.getOAMCallRef(), 
+					ReleaseCause.NO_ROUTE, cell);
+			return;
+		}
+		//a branch that already goes the party's way carries it on to the party
+		for(Branch branch : branches)
+			if(branch.port == nextHopNIC.getPort()){
+				branch.parties.add(party);
+				sendPartySignal(nextHopNIC, OAMType.ADD_PARTY, branch.vc, party, cell.getOAMCallRef(), null, cell);
+				return;
+			}
+		//otherwise a new branch is set up from here, admitted like any other connection
+		if(!nextHopNIC.reserveBandwidth(cell.getOAMTraffic())){
+			sendPartySignal(nic, OAMType.ADD_PARTY_REJECT, vc, party, cell.getOAMCallRef(), 
+					ReleaseCause.CELL_RATE_UNAVAILABLE, cell);
+			return;
+		}
+		pending = new PendingSetup(nic, cell.getOAMCallRef(), nextHopNIC, this.nextCallRef++, party, cell);
+		pending.partyOf = inPair;
+		pendingSetups.put(pending.callRef, pending);
+		sendSetup(pending);
+	}
+	
+	/**
+	 * Finishes setting up a new branch of a point to multipoint connection once the connect
+	 * for it comes back, and tells the root that the party was added.  If the connection 
+	 * was ended while the branch was being set up, the branch is ended straight away.
+	 * @param cell - the cell containing the connect signal
+	 * @param nic - the nic on which the connect signal was received
+	 * @param pending - the setup for the branch
+	 */
+	private void connectBranch(ATMCell cell, ATMNIC nic, PendingSetup pending){
+		PortTable table = this.portTables.get(pending.partyOf.getNIC().getPort());
+		int inVC = pending.partyOf.getVC();
+		NICVCPair outPair = new NICVCPair(nic, cell.getOAMVC());
+		
+		if(outToInVC.containsKey(outPair))
+			outPair = new NICVCPair(nic, calcOutVC(nic));
+		else nic.getOutVCs().claim(outPair.getVC());
+		if(outPair.getVC() == -1 || !VCtoVC.containsKey(pending.partyOf) || 
+				inVC >= table.outPort.length || table.outPort[inVC] != MULTIPOINT){
+			nic.getOutVCs().release(outPair.getVC());
+			nic.releaseBandwidth(pending.setupCell.getOAMTraffic());
+			sendSignal(nic, OAMType.CONNECT_ACK, -1, pending.callRef, cell);
+			sendSignal(nic, OAMType.END, cell.getOAMVC(), 0, cell);
+			if(outPair.getVC() == -1){
+				this.outOfVCs(cell);
+				sendPartySignal(pending.upstreamNIC, OAMType.ADD_PARTY_REJECT, inVC, pending.destAddress, 
+						pending.upstreamCallRef, ReleaseCause.VC_UNAVAILABLE, pending.setupCell);
+			}
+			return;
+		}
+		nic.openVC(outPair.getVC(), pending.setupCell.getOAMTraffic());
+		outToInVC.put(outPair, pending.partyOf);
+		this.addBranch(table, inVC, new Branch(nic.getPort(), outPair.getVC(), pending.destAddress));
+		labelsSelected(inVC, outPair);
+		sendSignal(nic, OAMType.CONNECT_ACK, -1, pending.callRef, cell);
+		sendPartySignal(pending.upstreamNIC, OAMType.ADD_PARTY_ACK, inVC, pending.destAddress, 
+				pending.upstreamCallRef, null, pending.setupCell);
+	}
+	
+	/**
+	 * Process the add party ack and add party reject signals.  Both are passed back towards
+	 * the root on the connection's input VC.  A rejected party is taken off the branch it
+	 * was added to on the way down.
+	 * @param cell - the cell containing the signal
+	 * @param nic - the nic on which the signal was received
+	 */
+	private void processPartyAnswer(ATMCell cell, ATMNIC nic){
+		NICVCPair inPair = outToInVC.get(new NICVCPair(nic, cell.getOAMVC()));
+		PortTable table;
+		
+		receivedPartySignal(cell);
+		if(inPair == null){
+			cellNoVC(cell);
+			return;
+		}
+		table = this.portTables.get(inPair.getNIC().getPort());
+		if(cell.getOAMType() == OAMType.ADD_PARTY_REJECT && table.outPort[inPair.getVC()] == MULTIPOINT){
+			for(Branch branch : table.branches[inPair.getVC()])
+				if(branch.port == nic.getPort() && branch.vc == cell.getOAMVC())
+					branch.parties.remove(cell.getOAMDest());
+		}
+		sendPartySignal(inPair.getNIC(), cell.getOAMType(), inPair.getVC(), cell.getOAMDest(), 
+				cell.getOAMCallRef(), cell.getOAMCause(), cell);
+	}
+	
+	/**
+	 * Process the drop party signal.  The party is taken off the branch that reaches it.
+	 * If no parties are left down that branch the branch is ended, otherwise the signal is 
+	 * passed on down the branch.  Once the last branch is gone the connection is released
+	 * back towards its root.
+	 * @param cell - the cell containing the drop party signal
+	 * @param nic - the nic on which the drop party signal was received
+	 */
+	private void processDropParty(ATMCell cell, ATMNIC nic){
+		int vc = cell.getOAMVC(), party = cell.getOAMDest();
+		PortTable table = this.portTables.get(nic.getPort());
+		NICVCPair inPair = new NICVCPair(nic, vc);
+		Branch[] branches;
+		ATMCell release;
+		
+		receivedPartySignal(cell);
+		if(!VCtoVC.containsKey(inPair)){
+			cellNoVC(cell);
+			return;
+		}
+		//a connection that doesn't branch here passes the drop on to where it does
+		if(table.outPort[vc] != MULTIPOINT){
+			if(table.outPort[vc] >= 0)
+				sendPartySignal(this.nics.get(table.outPort[vc]), OAMType.DROP_PARTY, table.outVC[vc], 
+						party, cell.getOAMCallRef(), null, cell);
+			return;
+		}
+		branches = table.branches[vc];
+		for(int i = 0; i < branches.length; i++){
+			if(!branches[i].parties.remove(party))
+				continue;
+			if(!branches[i].parties.isEmpty())
+				sendPartySignal(this.nics.get(branches[i].port), OAMType.DROP_PARTY, branches[i].vc, 
+						party, cell.getOAMCallRef(), null, cell);
+			else{
+				if(branches[i].port != TERMINATED)
+					this.endOutput(vc, new NICVCPair(this.nics.get(branches[i].port), branches[i].vc), cell);
+				this.removeBranch(inPair, i);
+				if(table.branches[vc].length == 0){
+					release = new ATMCell(0, OAMType.RELEASE, -1, -1, cell.getTraceID());
+					release.setOAMCause(ReleaseCause.NORMAL_CLEARING);
+					this.releaseInput(inPair, release);
+				}
+			}
+			return;
+		}
+	}
+	
+	/**
+	 * Makes a connection point to multipoint, turning its one output into its first branch
+	 * @param table - the port table of the connection's input nic
+	 * @param vc - the input VC of the connection
+	 * @return the branches of the connection
+	 */
+	private Branch[] toMultipoint(PortTable table, int vc){
+		if(table.outPort[vc] != MULTIPOINT){
+			table.branches[vc] = new Branch[]{new Branch(table.outPort[vc], table.outVC[vc], table.party[vc])};
+			table.outPort[vc] = MULTIPOINT;
+		}
+		return table.branches[vc];
+	}
+	
+	/**
+	 * Adds a branch to a point to multipoint connection
+	 * @param table - the port table of the connection's input nic
+	 * @param vc - the input VC of the connection
+	 * @param branch - the branch to add
+	 */
+	private void addBranch(PortTable table, int vc, Branch branch){
+		Branch[] branches = Arrays.copyOf(table.branches[vc], table.branches[vc].length + 1);
+		
+		branches[branches.length - 1] = branch;
+		table.branches[vc] = branches;
+	}
+	
+	/**
+	 * Takes a branch out of a point to multipoint connection.  The data path only ever reads
+	 * the branch array, so a new one is made rather than shifting the old one.  If VCtoVC
+	 * had the connection going out on the branch, it is moved to another branch (or to null
+	 * if none go out of this router).
+	 * @param inPair - the input NIC/VC pair of the connection
+	 * @param index - where the branch is in the connection's branches
+	 */
+	private void removeBranch(NICVCPair inPair, int index){
+		PortTable table = this.portTables.get(inPair.getNIC().getPort());
+		int vc = inPair.getVC();
+		Branch[] branches = new Branch[table.branches[vc].length - 1];
+		ArrayList<NICVCPair> outputs;
+		
+		System.arraycopy(table.branches[vc], 0, branches, 0, index);
+		System.arraycopy(table.branches[vc], index + 1, branches, index, branches.length - index);
+		table.branches[vc] = branches;
+		outputs = this.outputsOf(table, vc);
+		if(!outputs.contains(VCtoVC.get(inPair)))
+			VCtoVC.put(inPair, outputs.isEmpty() ? null : outputs.get(0));
+	}
+	
+	/**
+	 * Process an F5 OAM cell (a loopback or a continuity check).  F5 cells travel on the VC of
+	 * the connection they check.  Any F5 cell coming in on a connection shows it is alive.
+	 * Segment loopbacks are looped back straight away, and end to end ones are switched like
+	 * data cells until they get to the end of the connection.  Looped back cells come in on
+	 * the nic they went out on, under the output VC: a segment one answers this router's 
+	 * loopback, and an end to end one is passed back towards the source.
+	 * @param cell - the F5 cell
+	 * @param nic - the nic on which the cell was received
+	 */
+	private void processF5(ATMCell cell, ATMNIC nic){
+		int vc = cell.getVC(), port;
+		PortTable table;
+		NICVCPair inPair;
+		Monitor monitor;
+		
+		if(cell.getOAMType() == OAMType.LOOPBACK && !cell.getOAMLoopback()){
+			inPair = outToInVC.get(new NICVCPair(nic, vc));
+			if(inPair == null){
+				cellNoVC(cell);
+				return;
+			}
+			if(cell.isOAMEndToEnd()){
+				cell.setVC(inPair.getVC());
+				inPair.getNIC().sendCell(cell, this);
+				return;
+			}
+			monitor = this.portTables.get(inPair.getNIC().getPort()).monitors[inPair.getVC()];
+			if(monitor != null)
+				monitor.loopedBack.put(new NICVCPair(nic, vc), this.time);
+			return;
+		}
+		table = this.portTables.get(nic.getPort());
+		port = vc >= 0 && vc < table.outPort.length ? table.outPort[vc] : NOT_SWITCHED;
+		if(port == NOT_SWITCHED){
+			cellNoVC(cell);
+			return;
+		}
+		table.lastCell[vc] = this.time;
+		//segment cells only come from a router that monitors the connection too
+		if(!cell.isOAMEndToEnd() && table.monitors[vc] != null)
+			table.monitors[vc].upstreamMonitored = true;
+		if(cell.getOAMType() == OAMType.CONTINUITY_CHECK)
+			return;
+		if(!cell.isOAMEndToEnd() || port == TERMINATED){
+			cell.setOAMLoopback(false);
+			nic.sendCell(cell, this);
+		}
+		else if(port >= 0){
+			cell.setVC(table.outVC[vc]);
+			this.nics.get(port).sendCell(cell, this);
+		}
+		//an end to end loopback on a point to multipoint connection is looped back by every party
+		else{
+			for(Branch branch : table.branches[vc]){
+				ATMCell copy = new ATMCell(branch.vc, OAMType.LOOPBACK, -1, -1, cell.getTraceID());
+				
+				copy.setOAMEndToEnd(true);
+				if(branch.port == TERMINATED){
+					copy.setVC(vc);
+					copy.setOAMLoopback(false);
+					nic.sendCell(copy, this);
+				}
+				else this.nics.get(branch.port).sendCell(copy, this);
+			}
+		}
+	}
+	
+	/**
+	 * Process the release signal.  Some router further down the path refused the
+	 * connection, so the bandwidth reserved for it here is given back, the pending
+	 * setup is forgotten and the release (with its cause) is passed on upstream.
+	 * A release that carries a VC is for a connection that was set up, and has been lost
+	 * further down the path, so its output on that VC is taken down.
+	 * @param cell - the cell containing the release signal
+	 * @param nic - the nic on which the release signal was received
+	 */
+	private void processRelease(ATMCell cell, ATMNIC nic){
+		PendingSetup pending;
+		
+		receivedRelease(cell);
+		if(cell.getOAMVC() >= 0){
+			this.releaseOutput(new NICVCPair(nic, cell.getOAMVC()), cell);
+			return;
+		}
+		pending = pendingSetups.remove(cell.getOAMCallRef());
+		if(pending == null){
+			this.unknownCallRef(cell);
+			return;
+		}
+		pending.downstreamNIC.releaseBandwidth(pending.setupCell.getOAMTraffic());
+		//a new branch that couldn't be set up only rejects its party, the rest of the connection stays up
+		if(pending.partyOf != null){
+			sendPartySignal(pending.upstreamNIC, OAMType.ADD_PARTY_REJECT, pending.partyOf.getVC(), 
+					pending.destAddress, pending.upstreamCallRef, cell.getOAMCause(), pending.setupCell);
+			return;
+		}
+		
+		//crank back: if this router built the path, try another one around the blocked link
+		if(pending.blocked != null && cell.getOAMCrankbackFrom() != -1 && 
+				pending.crankbacks < MAX_CRANKBACKS){
+			pending.crankbacks++;
+			pending.blocked.add(TopologyDatabase.linkKey(cell.getOAMCrankbackFrom(), cell.getOAMCrankbackTo()));
+			crankedBack(cell);
+			if(this.routeSourceSetup(pending))
+				return;
+		}
+		sendSignal(pending.upstreamNIC, OAMType.RELEASE, cell.getOAMCause().getCode(), 
+				pending.upstreamCallRef, cell);
+	}
+	
 	/**
 	 * Process the "end ack" signal.  Prints to terminal to verify to user that the 
 	 * message was received.
@@ -459,56 +1615,61 @@ public class ATMRouter implements IATMCellConsumer{
 	 * @param nic - the nic which the cell came from.
 	 */
 	private void processOAMSignal(ATMCell cell, ATMNIC nic){
-		String cellData = cell.getData();
+		OAMType signal = cell.getOAMType();
 		
-		/*check for bad OAM cell format*/
-		if(cellData.compareTo("") == 0){
-			this.receivedBadCell(cell);
+		if(signal == null){
+			/*check for bad OAM cell format*/
+			if(cell.getData().length() == 0)
+				this.receivedBadCell(cell);
+			else
+				this.receivedUnknownSignal(cell);
 			return;
 		}
 		
-		if(cellData.contains("setup")){
+		switch(signal){
+		case SETUP:
 			processSetup(cell,nic);
-		}
-		else if(cellData.contains("call proceeding")){
+			break;
+		case CALL_PROCEEDING:
 			processCallProceeding(cell);
-		}
-		else if(cellData.contains("wait")){
+			break;
+		case WAIT:
 			processWait(cell,nic);
-		}
-		else if(cellData.contains("connect")){
-			if(cellData.contains("ack")) processConnectAck(cell);
-			else processConnect(cell,nic);
-		}
-		else if(cellData.contains("end")){
-			if(cellData.contains("ack")) processEndAck(cell);
-			else processEnd(cell,nic);
-		}
-		else{
+			break;
+		case CONNECT:
+			processConnect(cell,nic);
+			break;
+		case CONNECT_ACK:
+			processConnectAck(cell);
+			break;
+		case END:
+			processEnd(cell,nic);
+			break;
+		case END_ACK:
+			processEndAck(cell);
+			break;
+		case RELEASE:
+			processRelease(cell,nic);
+			break;
+		case ADD_PARTY:
+			processAddParty(cell,nic);
+			break;
+		case ADD_PARTY_ACK:
+		case ADD_PARTY_REJECT:
+			processPartyAnswer(cell,nic);
+			break;
+		case DROP_PARTY:
+			processDropParty(cell,nic);
+			break;
+		case LOOPBACK:
+		case CONTINUITY_CHECK:
+			processF5(cell,nic);
+			break;
+		default:
 			receivedUnknownSignal(cell);
 		}
 	}
 
-	/**
-	 * Gets the number from the end of a string
-	 * @param string the sting to try and get a number from
-	 * @return the number from the end of the string, or -1 if the end of the string is not a number
-	 * @since 1.0
-	 */
-	private int getIntFromEndOfString(String string){
-		// Try getting the number from the end of the string
-		try{
-			String num = string.split(" ")[string.split(" ").length-1];
-			return Integer.parseInt(num);
-		}
-		// Couldn't do it, so return -1
-		catch(Exception e){
-			if(trace)
-				System.out.println("Could not get int from end of string");
-			return -1;
-		}
-	}
-
 	/**
 	 * Error Handling function to handle unknown (bad) cell formats.
 	 * @param cell - the cell which was received
@@ -517,7 +1678,73 @@ public class ATMRouter implements IATMCellConsumer{
 		if(this.displayCommands)
 			System.err.println("Router " + this.address + 
 					" received a malformed cell." + cell.getTraceID() +
-					"\nCell Data: " + cell.getData());
+					"\nCell Data: " + cell.getOAMType() + " " + cell.getData());
+	}
+	
+	/**
+	 * Adds a connection to the VC tables, and to the port table the data path switches cells with
+	 * @param inNIC - the nic the connection comes in on
+	 * @param inVC - the input VC of the connection
+	 * @param outPair - the output NIC/VC pair of the connection, or null if it ends at this router
+	 * @param party - the address the connection was set up to
+	 */
+	private void setSwitchEntry(ATMNIC inNIC, int inVC, NICVCPair outPair, int party){
+		PortTable table = this.portTables.get(inNIC.getPort());
+		
+		VCtoVC.put(new NICVCPair(inNIC, inVC), outPair);
+		table.grow(inVC);
+		table.party[inVC] = party;
+		table.branches[inVC] = null;
+		this.startMonitor(new NICVCPair(inNIC, inVC));
+		if(outPair == null)
+			table.outPort[inVC] = TERMINATED;
+		else{
+			outToInVC.put(outPair, new NICVCPair(inNIC, inVC));
+			table.outPort[inVC] = outPair.getNIC().getPort();
+			table.outVC[inVC] = outPair.getVC();
+		}
+	}
+	
+	/**
+	 * Takes a connection out of the VC tables, and out of the port table the data path switches cells with
+	 * @param inPair - the input NIC/VC pair of the connection
+	 */
+	private void removeSwitchEntry(NICVCPair inPair){
+		PortTable table = this.portTables.get(inPair.getNIC().getPort());
+		NICVCPair outPair = VCtoVC.remove(inPair);
+		
+		//the branches of a point to multipoint connection are taken out as they are ended
+		if(outPair != null && (inPair.getVC() >= table.outPort.length || 
+				table.outPort[inPair.getVC()] != MULTIPOINT))
+			outToInVC.remove(outPair);
+		if(inPair.getVC() < table.outPort.length){
+			table.outPort[inPair.getVC()] = NOT_SWITCHED;
+			table.branches[inPair.getVC()] = null;
+			if(table.monitors[inPair.getVC()] != null)
+				this.oamTimers.cancel(table.monitors[inPair.getVC()].timer);
+			table.monitors[inPair.getVC()] = null;
+		}
+	}
+	
+	/**
+	 * Error handling function for when a VC space has no free VCs left for a new connection.
+	 * @param cell - the cell that needed a new VC
+	 */
+	private void outOfVCs(ATMCell cell){
+		if(this.displayCommands)
+			System.err.println("Router " + this.address +
+					" has no free VCs left for a connection." + cell.getTraceID());
+	}
+	
+	/**
+	 * Error handling function for signals whose call reference doesn't match a setup in progress.
+	 * @param cell - the cell containing the signal
+	 */
+	private void unknownCallRef(ATMCell cell){
+		if(this.displayCommands)
+			System.err.println("Router " + this.address +
+					" received a signal for an unknown call reference " + 
+					cell.getOAMCallRef() + ". " + cell.getTraceID());
 	}
 	
 	/**
@@ -666,6 +1893,51 @@ public class ATMRouter implements IATMCellConsumer{
 				+ cell.getTraceID());
 	}
 	
+	/**
+	 * Outputs to the console that a release message has been sent
+	 */
+	private void sentRelease(ATMCell cell){
+		if(this.displayCommands)
+		System.out.println("SND RELEASE: Router " +this.address+ " sent a release message (" 
+				+ cell.getOAMCause() + ") " + cell.getTraceID());
+	}
+	
+	/**
+	 * Outputs to the console that a party signal has been sent
+	 */
+	private void sentPartySignal(ATMCell cell){
+		if(this.displayCommands)
+		System.out.println("SND " + cell.getOAMType() + ": Router " +this.address+ " sent a party signal for " 
+				+ cell.getOAMDest() + " on VC " + cell.getOAMVC() + " " + cell.getTraceID());
+	}
+	
+	/**
+	 * Outputs to the console that a party signal has been received
+	 */
+	private void receivedPartySignal(ATMCell cell){
+		if(this.displayCommands)
+		System.out.println("REC " + cell.getOAMType() + ": Router " +this.address+ " received a party signal for " 
+				+ cell.getOAMDest() + " on VC " + cell.getOAMVC() + " " + cell.getTraceID());
+	}
+	
+	/**
+	 * Outputs to the console that a source routed setup was cranked back to this router
+	 */
+	private void crankedBack(ATMCell cell){
+		if(this.displayCommands)
+		System.out.println("CRANKBACK: Router " +this.address+ " is routing around the link " 
+				+ cell.getOAMCrankbackFrom() + "->" + cell.getOAMCrankbackTo() + " " + cell.getTraceID());
+	}
+	
+	/**
+	 * Outputs to the console that a release message has been received
+	 */
+	private void receivedRelease(ATMCell cell){
+		if(this.displayCommands)
+		System.out.println("REC RELEASE: Router " +this.address+ " received a release message (" 
+				+ cell.getOAMCause() + ") " + cell.getTraceID());
+	}
+	
 	/**
 	 * Outputs to the console that a wait message has been sent
 	 * @since 1.0
@@ -699,4 +1971,118 @@ public class ATMRouter implements IATMCellConsumer{
 					inVC + "," + outPair.getVC() + ">");
 	}
 	
+	/**
+	 * The switching table for the VCs coming into one nic, kept as arrays indexed by input VC
+	 * so the data path can switch a cell with two array reads.  VC numbers only mean anything
+	 * on the port they came in on, so each nic has its own table (and its own VC space).
+	 * The virtual paths coming into the nic are kept the same way, indexed by input VPI.
+	 */
+	private class PortTable{
+		int[] outPort = new int[0]; // where in nics the output nic is, by input VC (or NOT_SWITCHED/TERMINATED)
+		int[] outVC = new int[0]; // the output VC, by input VC
+		long[] cellsSwitched = new long[0]; // data cells switched, by input VC
+		int[] party = new int[0]; // the address the connection was set up to, by input VC
+		Branch[][] branches = new Branch[0][]; // the branches of a point to multipoint connection, by input VC (null if it has one output)
+		int[] lastCell = new int[0]; // the time a cell (data or F5) last came in, by input VC
+		Monitor[] monitors = new Monitor[0]; // the OAM monitor of the connection, by input VC (null if OAM monitoring is off)
+		int[] reassemblyChannel = new int[0]; // the reassembler's channel for cells that end here, by input VC (0 until one is needed)
+		int[] vpOutPort = new int[0]; // where in nics a virtual path goes out, by input VPI (or NOT_SWITCHED)
+		int[] vpOutVPI = new int[0]; // the output VPI of a virtual path, by input VPI (0 if the path ends here)
+		
+		void grow(int vc){
+			int oldSize = this.outPort.length, size;
+			
+			if(vc < oldSize)
+				return;
+			size = Math.max(vc + 1, Math.max(64, oldSize * 2));
+			this.outPort = Arrays.copyOf(this.outPort, size);
+			Arrays.fill(this.outPort, oldSize, size, NOT_SWITCHED);
+			this.outVC = Arrays.copyOf(this.outVC, size);
+			this.cellsSwitched = Arrays.copyOf(this.cellsSwitched, size);
+			this.party = Arrays.copyOf(this.party, size);
+			this.branches = Arrays.copyOf(this.branches, size);
+			this.lastCell = Arrays.copyOf(this.lastCell, size);
+			this.monitors = Arrays.copyOf(this.monitors, size);
+			this.reassemblyChannel = Arrays.copyOf(this.reassemblyChannel, size);
+		}
+		
+		void growVP(int vpi){
+			int oldSize = this.vpOutPort.length, size;
+			
+			if(vpi < oldSize)
+				return;
+			size = Math.max(vpi + 1, Math.max(16, oldSize * 2));
+			this.vpOutPort = Arrays.copyOf(this.vpOutPort, size);
+			Arrays.fill(this.vpOutPort, oldSize, size, NOT_SWITCHED);
+			this.vpOutVPI = Arrays.copyOf(this.vpOutVPI, size);
+		}
+	}
+	
+	/**
+	 * One branch of a point to multipoint connection at this router, along with the parties
+	 * that are reached through it
+	 */
+	private class Branch{
+		int port; // where in nics the branch goes out (TERMINATED if the branch is this router)
+		int vc; // the VC on the branch
+		TreeSet<Integer> parties = new TreeSet<Integer>(); // the addresses of the parties reached down the branch
+		
+		Branch(int port, int vc, int party){
+			this.port = port;
+			this.vc = vc;
+			this.parties.add(party);
+		}
+	}
+	
+	/**
+	 * The F5 OAM state of a connection through this router, which sits on the timer wheel
+	 */
+	private class Monitor{
+		NICVCPair inPair; // the input NIC/VC pair of the connection
+		TimerWheel.Timer<Monitor> timer = null; // the monitor's timer on the wheel
+		int nextSend = 0; // the time the connection's next F5 cells are due
+		boolean upstreamMonitored = false; // has a segment F5 cell come in on the connection (so the continuity check can time out)?
+		HashMap<NICVCPair, Integer> loopedBack = new HashMap<NICVCPair, Integer>(); // the time each output last looped back (or was first sent a loopback)
+		
+		Monitor(NICVCPair inPair){
+			this.inPair = inPair;
+		}
+	}
+	
+	/**
+	 * A setup that has been sent downstream and is waiting for its connect.
+	 * Pending setups are ordered by the time their back off runs out.
+	 */
+	private class PendingSetup implements Comparable<PendingSetup>{
+		ATMNIC upstreamNIC; // the nic the setup came in on
+		int upstreamCallRef; // the call reference the upstream node used for the setup
+		ATMNIC downstreamNIC; // the nic the setup was sent out on
+		int callRef; // the call reference used for the setup downstream of this router
+		int destAddress; // the address being connected to
+		ATMCell setupCell; // the setup cell that came in (for its trace ID)
+		int[] dtl = null; // the designated transit list sent downstream (null if routed hop by hop)
+		int dtlIndex = 0; // where the downstream router's next hop is in the transit list
+		HashSet<Long> blocked = null; // the links cranked back from, if this router is source routing the setup
+		int crankbacks = 0; // the number of times the setup has been cranked back here
+		NICVCPair partyOf = null; // the input NIC/VC pair of the point to multipoint connection the setup adds a branch to (null for a new connection)
+		int waits = 0; // the number of wait signals this setup has gotten
+		int retryTime = 0; // the time at which the setup should be resent, or given up on
+		boolean backingOff = false; // is the setup backing off after a wait (rather than waiting on its setup timer)?
+		boolean queued = false; // is the setup on the retry heap?
+		
+		PendingSetup(ATMNIC upstreamNIC, int upstreamCallRef, ATMNIC downstreamNIC, 
+				int callRef, int destAddress, ATMCell setupCell){
+			this.upstreamNIC = upstreamNIC;
+			this.upstreamCallRef = upstreamCallRef;
+			this.downstreamNIC = downstreamNIC;
+			this.callRef = callRef;
+			this.destAddress = destAddress;
+			this.setupCell = setupCell;
+		}
+		
+		public int compareTo(PendingSetup o){
+			return this.retryTime - o.retryTime;
+		}
+	}
+	
 }
@@ -7,13 +7,23 @@
 
 package NetworkElements;
 
+import java.util.*;
 import DataTypes.*;
 
 public class Computer implements IATMCellConsumer{
 	private ATMNIC nic=null;
 	private Boolean trace=true;
-	private int traceID = (int) (Math.random() * 100000);
-	private int vcNumber=-1;
+	private int traceID = RandomSource.stream("computer", RandomSource.nextID("computer")).nextInt(100000);
+	private int nextCallRef=1; // the call reference for the next setup, which is also the connection's call handle
+	private HashMap<Integer, Connection> connections = new HashMap<Integer, Connection>(); // the connections being set up or open, by call handle
+	private HashMap<Integer, Connection> openConnections = new HashMap<Integer, Connection>(); // the open connections, by VC
+	private PriorityQueue<Connection> setupRetries = new PriorityQueue<Connection>(); // setups that are backing off after a wait or waiting on their setup timer, by when that runs out
+	private int defaultHandle=0; // the connection used by the methods that don't take a call handle (the last one set up)
+	private int time=0; // the number of time units this computer has seen
+	private AAL5Reassembler reassembler = new AAL5Reassembler(); // puts received cells back together into packets
+	private ReleaseCause lastReleaseCause = null; // the cause carried by the last release this computer received
+	private static final int MAX_BACKOFF = 64; // the longest a setup will back off for after a wait (in time units)
+	private static final int SETUP_TIMEOUT = 150; // how long a setup waits for a connect or release (like the UNI's T303, longer than a router's so the network's release normally gets here first)
 	private String address="";
 	
 	/**
@@ -42,7 +52,7 @@ public class Computer implements IATMCellConsumer{
 			processOAMSignal(cell,nic);
 		}
 		else{
-			
+			this.reassembler.receiveCell(cell, this.time);
 		}
 	}
 
@@ -53,53 +63,174 @@ public class Computer implements IATMCellConsumer{
 	 * @param nic2 the nic on which the cell was received.
 	 */
 	private void processOAMSignal(ATMCell cell, ATMNIC nic2) {
-		String cellData = cell.getData();
+		OAMType signal = cell.getOAMType();
 		ATMCell responseCell;
+		Connection connection;
+		
+		if(signal == null)
+			return;
 		
-		if(cellData.contains("call proceeding")){
+		switch(signal){
+		case CALL_PROCEEDING:
 			this.receivedCallProceeding(cell);
-		}
-		if(cellData.contains("end")){
-			if(cellData.contains("ack")) this.receivedEndAck(cell);
-		}
-		if(cellData.contains("wait")) this.receivedWait(cell);
-		if(cellData.contains("connect")){
-			this.receivedConnect(cell);
+			break;
+		case END_ACK:
+			this.receivedEndAck(cell);
+			break;
+		case WAIT:
+			this.receivedWait(cell);
+			//back off before trying the setup again, doubling the wait every time
+			connection = this.connections.get(cell.getOAMCallRef());
+			if(connection != null && connection.vc < 0){
+				connection.waits++;
+				this.scheduleSetup(connection, this.time + Math.min(1 << Math.min(connection.waits - 1, 30), MAX_BACKOFF), true);
+			}
+			break;
+		case RELEASE:
+			this.receivedRelease(cell);
+			this.lastReleaseCause = cell.getOAMCause();
+			//a release on a VC is for an open connection the network lost
+			if(cell.getOAMVC() >= 0){
+				connection = this.connectionOn(cell.getOAMVC());
+				if(connection != null){
+					this.connections.remove(connection.handle);
+					this.openConnections.remove(connection.vc);
+					this.nic.closeVC(connection.vc);
+				}
+				break;
+			}
+			//the network refused the connection, so stop trying
+			connection = this.connections.get(cell.getOAMCallRef());
+			if(connection != null && connection.vc < 0)
+				this.connections.remove(connection.handle);
+			break;
+		case LOOPBACK:
+			connection = this.connectionOn(cell.getVC());
+			if(connection != null && cell.isOAMEndToEnd() && !cell.getOAMLoopback()){
+				connection.loopbacks++;
+				System.out.println("REC LOOPBACK: Computer "+address+" received a loopback on VC " + cell.getVC() + " " + cell.getTraceID());
+			}
+			break;
+		case CONNECT:
+			connection = this.connections.get(cell.getOAMCallRef());
+			if(connection == null || connection.vc >= 0){
+				System.err.println("Computer " + address + " received a connect for an unknown call handle " + cell.getOAMCallRef());
+				return;
+			}
 			//print that the VC was set up.
+			if(!this.receivedConnect(cell))
+				return;
+			connection.vc = cell.getOAMVC();
+			this.openConnections.put(connection.vc, connection);
+			nic2.openVC(connection.vc, connection.traffic);
 			
-			responseCell = new ATMCell(0,"connect ack",this.traceID);
+			responseCell = new ATMCell(0, OAMType.CONNECT_ACK, -1, -1, this.traceID);
+			responseCell.setOAMCallRef(connection.handle);
 			this.sentConnectAck(responseCell);
-			responseCell.setIsOAM(true);
 			nic2.sendCell(responseCell, this);
+			break;
+		case ADD_PARTY_ACK:
+			this.receivedPartySignal(cell);
+			connection = this.connections.get(cell.getOAMCallRef());
+			if(connection != null)
+				connection.parties.add(cell.getOAMDest());
+			break;
+		case ADD_PARTY_REJECT:
+			this.receivedPartySignal(cell);
+			break;
+		default:
+			break;
 		}
 	}
 
 	/**
 	 * This method sends an ATM cell containing 'setup' and an address to the router
 	 * @param toAddress the address we want to connect to
+	 * @return the call handle of the new connection
 	 * @since 1.0
 	 */
-	public void setupConnection(int toAddress){
+	public int setupConnection(int toAddress){
+		return this.setupConnection(toAddress, TrafficDescriptor.BEST_EFFORT);
+	}
+	
+	/**
+	 * This method sends an ATM cell containing 'setup', an address and a traffic contract to the router.
+	 * Any number of connections can be set up (and open) at once, each one is picked out by
+	 * the call handle returned.  The new connection also becomes the one used by the methods 
+	 * that don't take a call handle.
+	 * @param toAddress the address we want to connect to
+	 * @param traffic the service category and cell rates the connection needs
+	 * @return the call handle of the new connection
+	 */
+	public int setupConnection(int toAddress, TrafficDescriptor traffic){
+		Connection connection = new Connection(this.nextCallRef++, toAddress, traffic);
+		
+		this.connections.put(connection.handle, connection);
+		this.defaultHandle = connection.handle;
+		this.sendSetup(connection);
+		return connection.handle;
+	}
+	
+	/**
+	 * Sends the setup for a connection that is in progress
+	 * @param connection the connection being set up
+	 */
+	private void sendSetup(Connection connection){
 		// Create the ATM cell to send
-		ATMCell conn = new ATMCell(0, "setup " + toAddress, this.getTraceID());
-		conn.setIsOAM(true);	
+		ATMCell conn = new ATMCell(0, OAMType.SETUP, connection.dest, -1, this.getTraceID());
+		conn.setOAMCallRef(connection.handle);
+		conn.setOAMTraffic(connection.traffic);
 		
 		// Output to the console
 		this.sentSetup(conn);
 		
 		// send the cell
 		this.nic.sendCell(conn , this);
+		this.scheduleSetup(connection, this.time + SETUP_TIMEOUT, false);
+	}
+	
+	/**
+	 * Puts a setup on the retry heap for the next thing that has to happen to it
+	 * @param connection the connection being set up
+	 * @param time when it has to happen
+	 * @param backingOff true if the setup is to be resent then, false if it is to be given up on
+	 */
+	private void scheduleSetup(Connection connection, int time, boolean backingOff){
+		if(connection.queued)
+			this.setupRetries.remove(connection);
+		connection.retryTime = time;
+		connection.backingOff = backingOff;
+		connection.queued = true;
+		this.setupRetries.add(connection);
 	}
 	
 	/**
-	 * This method sends an ATM cell saying that we want to end the VC that we currently have open
-	 * Currently each computer can only have one VC, but the routers can have many VC open
+	 * This method sends an ATM cell saying that we want to end the VC that was set up last
 	 * @since 1.0
 	 */
 	public void endConnection(){
+		this.endConnection(this.defaultHandle);
+	}
+	
+	/**
+	 * This method sends an ATM cell saying that we want to end a connection.  A connection
+	 * that is still being set up can't be ended yet.
+	 * @param handle the call handle of the connection
+	 */
+	public void endConnection(int handle){
+		Connection connection = this.connections.get(handle);
+		ATMCell end;
+		
+		if(connection == null || connection.vc < 0){
+			System.err.println("Computer " + address + " has no open connection for call handle " + handle);
+			return;
+		}
+		this.connections.remove(handle);
+		this.openConnections.remove(connection.vc);
+		
 		// Create the ATM cell to send
-		ATMCell end = new ATMCell(this.vcNumber, "end " + this.vcNumber, this.getTraceID());
-		end.setIsOAM(true);
+		end = new ATMCell(connection.vc, OAMType.END, -1, connection.vc, this.getTraceID());
+		this.nic.closeVC(connection.vc);
 		
 		// Output to the console
 		this.sentEnd(end);
@@ -109,32 +240,172 @@ public class Computer implements IATMCellConsumer{
 	}
 	
 	/**
-	 * Gets the number from the end of a string
-	 * @param string the sting to try and get a number from
-	 * @return the number from the end of the string, or -1 if the end of the string is not a number
-	 * @since 1.0
+	 * Adds another party to an open connection, making it a point to multipoint connection.
+	 * Every cell sent on the connection reaches all of its parties.  The network answers
+	 * with an add party ack or an add party reject.
+	 * @param handle the call handle of the connection
+	 * @param party the address of the party to add
+	 */
+	public void addParty(int handle, int party){
+		this.sendPartySignal(handle, OAMType.ADD_PARTY, party);
+	}
+	
+	/**
+	 * Drops a party from a point to multipoint connection.  The connection stays up until it
+	 * is ended or its last party is dropped, when the network releases it.
+	 * @param handle the call handle of the connection
+	 * @param party the address of the party to drop
+	 */
+	public void dropParty(int handle, int party){
+		Connection connection = this.connections.get(handle);
+		
+		if(connection != null && connection.parties.remove(party))
+			this.sendPartySignal(handle, OAMType.DROP_PARTY, party);
+		else System.err.println("Computer " + address + " has no party " + party + " on call handle " + handle);
+	}
+	
+	/**
+	 * Sends an add party or drop party signal on a connection
+	 * @param handle the call handle of the connection
+	 * @param signal the signal to send
+	 * @param party the address of the party
 	 */
-	private int getIntFromEndOfString(String string){
-		// Try getting the number from the end of the string
-		try{
-			String num = string.split(" ")[string.split(" ").length-1];
-			return Integer.parseInt(num);
+	private void sendPartySignal(int handle, OAMType signal, int party){
+		Connection connection = this.connections.get(handle);
+		ATMCell cell;
+		
+		if(connection == null || connection.vc < 0){
+			System.err.println("Computer " + address + " has no open connection for call handle " + handle);
+			return;
 		}
-		// Couldn't do it, so return -1
-		catch(Exception e){
-			if(trace)
-				System.out.println("Could not get int from end of string");
-			return -1;
+		cell = new ATMCell(0, signal, party, connection.vc, this.getTraceID());
+		cell.setOAMCallRef(handle);
+		cell.setOAMTraffic(connection.traffic);
+		System.out.println("SND " + signal + ": Computer "+address+" sent a party signal for " + party + " " + cell.getTraceID());
+		this.nic.sendCell(cell, this);
+	}
+	
+	/**
+	 * Returns the number of parties a connection reaches
+	 * @param handle the call handle of the connection
+	 * @return the number of parties on the connection, 0 if there is no such connection
+	 */
+	public int getPartyCount(int handle){
+		Connection connection = this.connections.get(handle);
+		
+		return connection == null ? 0 : connection.parties.size();
+	}
+	
+	/**
+	 * Sends an F5 end to end loopback on a connection.  It is switched to the far end of the
+	 * connection and back, so it checks the whole path is still there.
+	 * @param handle the call handle of the connection
+	 */
+	public void sendLoopback(int handle){
+		Connection connection = this.connections.get(handle);
+		ATMCell cell;
+		
+		if(connection == null || connection.vc < 0){
+			System.err.println("Computer " + address + " has no open connection for call handle " + handle);
+			return;
 		}
+		cell = new ATMCell(connection.vc, OAMType.LOOPBACK, -1, -1, this.getTraceID());
+		cell.setOAMEndToEnd(true);
+		System.out.println("SND LOOPBACK: Computer "+address+" sent a loopback on VC " + connection.vc + " " + cell.getTraceID());
+		this.nic.sendCell(cell, this);
+	}
+	
+	/**
+	 * Returns the number of end to end loopbacks that came back on a connection
+	 * @param handle the call handle of the connection
+	 * @return the number of loopbacks that came back, 0 if there is no such connection
+	 */
+	public int getLoopbacksReturned(int handle){
+		Connection connection = this.connections.get(handle);
+		
+		return connection == null ? 0 : connection.loopbacks;
+	}
+	
+	/**
+	 * Finds the open connection on a VC
+	 * @param vc the VC
+	 * @return the connection, or null if no connection is open on the VC
+	 */
+	private Connection connectionOn(int vc){
+		return this.openConnections.get(vc);
+	}
+	
+	/**
+	 * Returns the VC a connection is open on
+	 * @param handle the call handle of the connection
+	 * @return the VC of the connection, -1 if it isn't open (yet)
+	 */
+	public int getConnectionVC(int handle){
+		Connection connection = this.connections.get(handle);
+		
+		return connection == null ? -1 : connection.vc;
+	}
+	
+	/**
+	 * Returns the number of wait signals a connection's setup got (each one was followed
+	 * by a back off and another try)
+	 * @param handle the call handle of the connection
+	 * @return the number of waits, 0 if there is no such connection
+	 */
+	public int getSetupWaits(int handle){
+		Connection connection = this.connections.get(handle);
+		
+		return connection == null ? 0 : connection.waits;
+	}
+	
+	/**
+	 * Returns the cause of the last release this computer received
+	 * @return the release cause, null if no release has been received
+	 */
+	public ReleaseCause getLastReleaseCause(){
+		return this.lastReleaseCause;
+	}
+	
+	/**
+	 * Returns the number of connections this computer has open or is setting up
+	 * @return the number of connections in the connection table
+	 */
+	public int getConnectionCount(){
+		return this.connections.size();
 	}
 	
 	/**
 	 * Sends a packet from this computer to another ip address (not really since there aren't any place to send...)
+	 * on the VC that was set up last.  If that VC isn't open the cells go out on VC -1.
 	 * @param size the size of the packet in bits
 	 * @since 1.0
 	 * @version 1.2
 	 */
 	public void sendPacket(int size){
+		this.sendCells(this.getConnectionVC(this.defaultHandle), size);
+	}
+	
+	/**
+	 * Sends a packet from this computer on a connection
+	 * @param handle the call handle of the connection
+	 * @param size the size of the packet in bits
+	 */
+	public void sendPacket(int handle, int size){
+		int vc = this.getConnectionVC(handle);
+		
+		if(vc < 0){
+			System.err.println("Computer " + address + " has no open connection for call handle " + handle);
+			return;
+		}
+		this.sendCells(vc, size);
+	}
+	
+	/**
+	 * Cuts a packet into cells and sends them on a VC
+	 * @param vc the VC to send the cells on
+	 * @param size the size of the packet in bits
+	 */
+	private void sendCells(int vc, int size){
 		// Print error messages if needed
 		if(this.nic==null)
 			System.err.println("The computer you are sending from does not have a NIC!");
@@ -143,6 +414,7 @@ public class Computer implements IATMCellConsumer{
 		
 		int bitsRemaining = size;
 		boolean firstCell = true;
+		ATMCell cell;
 		
 		while(bitsRemaining > 0){
 			if(trace)
@@ -150,18 +422,18 @@ public class Computer implements IATMCellConsumer{
 			
 			// If it's the first cell we'll send the IP header info
 			if(firstCell){
-				nic.sendCell(new ATMCell(this.vcNumber, new IPPacket("10.0.0.1", "10.0.0.2", size), this.getTraceID()), this);
+				cell = new ATMCell(vc, new IPPacket("10.0.0.1", "10.0.0.2", size), this.getTraceID());
 				firstCell=false;
 			}
 			// otherwise we'll just send some fake data that would be in the packet
 			else{
-				// Make some dummy packet data
-				String data = "";
-				for(int i=0; (i <= 48*8) && (i <=bitsRemaining); i++)
-					data += "d";
-				
-				nic.sendCell(new ATMCell(this.vcNumber, data, this.getTraceID()), this);
+				// only the amount of dummy data is recorded, the cell shares a filler buffer
+				int bytes = (Math.min(bitsRemaining, ATMCell.CELL_SIZE) + 7) / 8;
+				cell = new ATMCell(vc, bytes, this.getTraceID());
 			}
+			// mark the last cell of the packet so the receiver knows where the packet ends
+			cell.setEndOfFrame(bitsRemaining <= ATMCell.CELL_SIZE);
+			nic.sendCell(cell, this);
 			
 			// 48*8 bits of data sent in an ATM cell payload
 			bitsRemaining -= 48*8;
@@ -190,9 +462,34 @@ public class Computer implements IATMCellConsumer{
 	 * @since 1.0
 	 */
 	public void clearInputBuffers(){
+			this.time++;
+			this.runSetupTimers();
+			this.reassembler.expire(this.time);
 			this.nic.clearInputBuffers();
 	}
 	
+	/**
+	 * Resends the setups whose back off has run out, and gives up on the ones whose setup
+	 * timer has run out (nothing came back for them, i.e. a link went down).
+	 */
+	private void runSetupTimers(){
+		Connection connection;
+		
+		while(!this.setupRetries.isEmpty() && this.setupRetries.peek().retryTime <= this.time){
+			connection = this.setupRetries.poll();
+			connection.queued = false;
+			//the call may have been connected by an earlier copy of the setup, or released
+			if(this.connections.get(connection.handle) != connection || connection.vc >= 0)
+				continue;
+			if(connection.backingOff)
+				this.sendSetup(connection);
+			else{
+				System.err.println("Computer " + address + " gave up on the setup for call handle " + connection.handle);
+				this.connections.remove(connection.handle);
+			}
+		}
+	}
+	
 	/**
 	 * This method returns a sequentially increasing random trace ID, so that we can
 	 * differentiate cells in the network
@@ -205,6 +502,14 @@ public class Computer implements IATMCellConsumer{
 		return ret;
 	}
 	
+	/**
+	 * Returns the reassembly layer of this computer, which counts the packets it has received
+	 * @return the reassembly layer of this computer
+	 */
+	public AAL5Reassembler getReassembler(){
+		return this.reassembler;
+	}
+	
 	/**
 	 * Sets the nic in the computer to use tail drop as its drop mechanism
 	 * @since 1.0
@@ -257,20 +562,20 @@ public class Computer implements IATMCellConsumer{
 	
 	/**
 	 * Outputs to the console that a connect message has been received
+	 * @return false if the connect didn't carry a VC
 	 * @since 1.0
 	 * @version 1.2
 	 */
-	private void receivedConnect(ATMCell cell){
-		String cellData = cell.getData();
-		this.vcNumber = getIntFromEndOfString(cellData);
-		if(vcNumber < 0){
+	private boolean receivedConnect(ATMCell cell){
+		if(cell.getOAMVC() < 0){
 			System.err.println("Computer " + address + " received a malformated connection message.");
-			System.err.println("Data: " + cellData);
-			return;
+			System.err.println("Data: " + cell.getData());
+			return false;
 		}
 		
 		System.out.println("REC CONN: Computer "+address+" received a connect message " + cell.getTraceID());
-		System.out.println("The connection is set up on VC " + vcNumber);
+		System.out.println("The connection is set up on VC " + cell.getOAMVC());
+		return true;
 	}
 	
 	/**
@@ -300,6 +605,23 @@ public class Computer implements IATMCellConsumer{
 		System.out.println("REC WAIT: Computer "+address+" received a wait message " + cell.getTraceID());
 	}
 	
+	/**
+	 * Outputs to the console that a release message has been received
+	 */
+	private void receivedRelease(ATMCell cell){
+		System.out.println("REC RELEASE: Computer "+address+" received a release message (" + 
+				cell.getOAMCause() + ") " + cell.getTraceID());
+	}
+	
+	/**
+	 * Outputs to the console that an add party ack or add party reject has been received
+	 */
+	private void receivedPartySignal(ATMCell cell){
+		System.out.println("REC " + cell.getOAMType() + ": Computer "+address+" received a party signal for " + 
+				cell.getOAMDest() + (cell.getOAMType() == OAMType.ADD_PARTY_REJECT ? " (" + cell.getOAMCause() + ") " : " ") + 
+				cell.getTraceID());
+	}
+	
 	/**
 	 * Outputs to the console that a connect ack message has been sent
 	 * @since 1.2
@@ -307,4 +629,32 @@ public class Computer implements IATMCellConsumer{
 	private void sentConnectAck(ATMCell cell){
 		System.out.println("SND CALLACK: Computer "+address+" sent a connect ack message " + cell.getTraceID());
 	}
+	
+	/**
+	 * An entry in the connection table, for a connection that is being set up or is open.
+	 * Setups that are backing off are ordered by the time their back off runs out.
+	 */
+	private class Connection implements Comparable<Connection>{
+		int handle; // the call handle of the connection (the call reference of its setup)
+		int dest; // the address being connected to
+		TrafficDescriptor traffic; // the traffic contract asked for
+		int vc = -1; // the VC the connection is open on (-1 while it is being set up)
+		int waits = 0; // the number of wait signals the setup has gotten
+		int retryTime = 0; // the time at which the setup should be resent, or given up on
+		boolean backingOff = false; // is the setup backing off after a wait (rather than waiting on its setup timer)?
+		boolean queued = false; // is the connection on the retry heap?
+		TreeSet<Integer> parties = new TreeSet<Integer>(); // the addresses the connection reaches
+		int loopbacks = 0; // the number of end to end loopbacks that came back on the connection
+		
+		Connection(int handle, int dest, TrafficDescriptor traffic){
+			this.handle = handle;
+			this.dest = dest;
+			this.traffic = traffic;
+			this.parties.add(dest);
+		}
+		
+		public int compareTo(Connection o){
+			return this.retryTime - o.retryTime;
+		}
+	}
 }
@@ -0,0 +1,167 @@
+package NetworkElements;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Moves time forward for a whole network, running each phase of a time unit across the
+ * routers and computers on a pool of worker threads.  Every object's output buffers are
+ * cleared, then (once every worker is done) every object's input buffers are cleared.
+ *
+ * Within a phase an object only touches its own nics, plus the input buffer of the nic
+ * at the other end of each of its links (which only it ever writes to), so the objects
+ * can run in any order on any thread.  Each object is always run by one worker, so the
+ * signals inside a router are handled in the same order as they would be sequentially
+ * and a run gives the same results whatever the number of threads (only the console
+ * output is interleaved).
+ */
+public class NetworkStepper {
+	private ArrayList<IATMCellConsumer> consumers = new ArrayList<IATMCellConsumer>(); // the routers and computers to move in time
+	private int threads; // the number of workers
+	private ExecutorService workers = null; // the worker pool (null if stepping on the calling thread)
+	private ArrayList<Callable<Object>> outputPhase = null; // the output phase, split into one task per worker
+	private ArrayList<Callable<Object>> inputPhase = null; // the input phase, split into one task per worker
+	private TopologyDatabase topology = null; // link state routing to advertise between time units (or null)
+	private int time = 0; // the number of time units that have passed
+
+	/**
+	 * Creates a stepper that runs on one worker per processor
+	 */
+	public NetworkStepper(){
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a stepper
+	 * @param threads the number of workers to run each phase on (1 runs on the calling thread)
+	 */
+	public NetworkStepper(int threads){
+		this.threads = Math.max(1, threads);
+		if(this.threads > 1)
+			this.workers = Executors.newFixedThreadPool(this.threads, new ThreadFactory(){
+				public Thread newThread(Runnable r){
+					// daemon workers, so a stepper that is never shut down doesn't keep the JVM alive
+					Thread worker = new Thread(r, "NetworkStepper");
+					worker.setDaemon(true);
+					return worker;
+				}
+			});
+	}
+
+	/**
+	 * Adds a router or computer to be moved in time
+	 * @param consumer the router or computer
+	 */
+	public void add(IATMCellConsumer consumer){
+		this.consumers.add(consumer);
+		this.outputPhase = null;
+		this.inputPhase = null;
+	}
+
+	/**
+	 * Sets the link state routing to advertise link bandwidths to at the end of every time unit
+	 * @param topology the topology database of the network
+	 */
+	public void setTopology(TopologyDatabase topology){
+		this.topology = topology;
+	}
+
+	/**
+	 * Moves time forward one unit
+	 */
+	public void step(){
+		this.time++;
+		if(this.workers == null){
+			for(int i=0; i<this.consumers.size(); i++)
+				this.consumers.get(i).clearOutputBuffers();
+			for(int i=0; i<this.consumers.size(); i++)
+				this.consumers.get(i).clearInputBuffers();
+		}
+		else{
+			if(this.outputPhase == null)
+				this.splitPhases();
+			// invokeAll only returns once every worker is done, so it is the barrier between phases
+			this.runPhase(this.outputPhase);
+			this.runPhase(this.inputPhase);
+		}
+		if(this.topology != null)
+			this.topology.advertise();
+	}
+
+	/**
+	 * Moves time forward a number of units
+	 * @param steps the number of time units
+	 */
+	public void step(int steps){
+		for(int i=0; i<steps; i++)
+			this.step();
+	}
+
+	/**
+	 * Returns the number of time units that have passed
+	 * @return the number of time units that have passed
+	 */
+	public int getTime(){
+		return this.time;
+	}
+
+	/**
+	 * Stops the worker threads.  The stepper can't be used after this.
+	 */
+	public void shutdown(){
+		if(this.workers != null)
+			this.workers.shutdown();
+	}
+
+	/**
+	 * Splits the routers and computers into one contiguous slice per worker, for each phase
+	 */
+	private void splitPhases(){
+		int size = this.consumers.size();
+
+		this.outputPhase = new ArrayList<Callable<Object>>();
+		this.inputPhase = new ArrayList<Callable<Object>>();
+		for(int t=0; t<this.threads; t++){
+			final List<IATMCellConsumer> slice = this.consumers.subList(t * size / this.threads, (t + 1) * size / this.threads);
+			if(slice.isEmpty())
+				continue;
+			this.outputPhase.add(new Callable<Object>(){
+				public Object call(){
+					for(IATMCellConsumer consumer : slice)
+						consumer.clearOutputBuffers();
+					return null;
+				}
+			});
+			this.inputPhase.add(new Callable<Object>(){
+				public Object call(){
+					for(IATMCellConsumer consumer : slice)
+						consumer.clearInputBuffers();
+					return null;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Runs a phase on the workers and waits for all of them to finish.  If a router or
+	 * computer throws, the step can't be finished, so the exception is passed on to the caller.
+	 * @param phase the tasks making up the phase
+	 */
+	private void runPhase(ArrayList<Callable<Object>> phase){
+		try{
+			for(Future<Object> done : this.workers.invokeAll(phase))
+				done.get();
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			System.err.println("Error (NetworkStepper): Interrupted while stepping the network");
+		}
+		catch(ExecutionException e){
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			if(e.getCause() instanceof Error)
+				throw (Error)e.getCause();
+			throw new RuntimeException("A router or computer failed while stepping the network", e.getCause());
+		}
+	}
+}
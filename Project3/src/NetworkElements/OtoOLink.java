@@ -12,6 +12,12 @@ import DataTypes.*;
 public class OtoOLink {
 	private ATMNIC r1NIC=null, r2NIC=null;
 	private Boolean trace=false;
+	private int capacity = 0; // the number of cells the link can carry each way per time unit (0 for no limit)
+	private int delay = 0; // the number of time units a cell takes to cross the link (0 to arrive straight away)
+	private Pipe r1ToR2 = new Pipe(), r2ToR1 = new Pipe(); // the cells in flight in each direction
+	private boolean up = true; // is the link carrying cells?
+	private int cost = 1; // the cost of the link to the routing
+	private TopologyDatabase topology = null; // the routing that needs to hear about changes to this link
 	
 	/**
 	 * The default constructor for a OtoOLink
@@ -33,6 +39,19 @@ public class OtoOLink {
 		}
 	}
 	
+	/**
+	 * Returns the nic at the other end of the link
+	 * @param nic the nic at this end of the link
+	 * @return the nic at the other end of the link, or null if nic isn't on this link
+	 */
+	public ATMNIC getOtherNIC(ATMNIC nic){
+		if(this.r1NIC == nic)
+			return this.r2NIC;
+		if(this.r2NIC == nic)
+			return this.r1NIC;
+		return null;
+	}
+	
 	/**
 	 * Sends a cell from one end of the link to the other
 	 * @param cell the cell to be sent
@@ -40,19 +59,180 @@ public class OtoOLink {
 	 * @since 1.0
 	 */
 	public void sendCell(ATMCell cell, ATMNIC nic){
+		if(!this.up){
+			if(this.trace)
+				System.out.println("(OtoOLink) Trace: the link is down, the cell was lost");
+			return;
+		}
 		if(this.r1NIC.equals(nic)){
 			if(this.trace)
 				System.out.println("(OtoOLink) Trace: sending cell from router A to router B");
 			
-			this.r2NIC.receiveCell(cell);
+			if(this.delay == 0)
+				this.r2NIC.receiveCell(cell);
+			else
+				this.r1ToR2.add(cell, this.delay);
 		}
 		else if(this.r2NIC.equals(nic)){
 			if(this.trace)
 				System.out.println("(OtoOLink) Trace: sending cell from router B to router A");
 			
-			this.r1NIC.receiveCell(cell);
+			if(this.delay == 0)
+				this.r1NIC.receiveCell(cell);
+			else
+				this.r2ToR1.add(cell, this.delay);
 		}
 		else
 			System.err.println("(OtoOLink) Error: You are trying to send a cell down a link that you are not connected to");
 	}
+	
+	/**
+	 * Moves time forward by one unit for the cells a nic has in flight on this link, and hands
+	 * the ones that have finished crossing to the nic at the other end.  Called by the nic
+	 * before it sends anything in a time unit.
+	 * @param nic the nic whose cells are moved along
+	 */
+	public void tick(ATMNIC nic){
+		if(this.r1NIC == nic)
+			this.r1ToR2.tick(this.r2NIC);
+		else if(this.r2NIC == nic)
+			this.r2ToR1.tick(this.r1NIC);
+	}
+	
+	/**
+	 * Sets the number of cells the link can carry in each direction per time unit.  Also
+	 * tells the nics at both ends, so connection admission control uses the same capacity.
+	 * @param capacity the cells per time unit (0 for no limit)
+	 */
+	public void setCapacity(int capacity){
+		this.capacity = capacity;
+		this.r1NIC.setLinkCapacity(capacity > 0 ? capacity : Double.POSITIVE_INFINITY);
+		this.r2NIC.setLinkCapacity(capacity > 0 ? capacity : Double.POSITIVE_INFINITY);
+		this.r1ToR2.reserve(capacity * this.delay);
+		this.r2ToR1.reserve(capacity * this.delay);
+	}
+	
+	/**
+	 * Returns the number of cells the link can carry in each direction per time unit
+	 * @return the cells per time unit (0 for no limit)
+	 */
+	public int getCapacity(){
+		return this.capacity;
+	}
+	
+	/**
+	 * Sets the number of time units a cell takes to cross the link
+	 * @param delay the propagation delay in time units (0 for cells to arrive straight away)
+	 */
+	public void setDelay(int delay){
+		this.delay = Math.max(0, delay);
+		this.r1ToR2.reserve(this.capacity * this.delay);
+		this.r2ToR1.reserve(this.capacity * this.delay);
+	}
+	
+	/**
+	 * Returns the number of time units a cell takes to cross the link
+	 * @return the propagation delay in time units
+	 */
+	public int getDelay(){
+		return this.delay;
+	}
+	
+	/**
+	 * Brings the link up or takes it down.  A link that is down loses every cell sent on it.
+	 * The routing is told, so it can route around the link.
+	 * @param up true to bring the link up, false to take it down
+	 */
+	public void setUp(boolean up){
+		this.up = up;
+		if(this.topology != null)
+			this.topology.linkChanged(this);
+	}
+	
+	/**
+	 * Returns whether the link is up
+	 * @return true if the link is carrying cells
+	 */
+	public boolean isUp(){
+		return this.up;
+	}
+	
+	/**
+	 * Sets the cost of the link to the routing.  The routing is told, so it can pick new paths.
+	 * @param cost the cost of the link (at least 1)
+	 */
+	public void setCost(int cost){
+		this.cost = Math.max(1, cost);
+		if(this.topology != null)
+			this.topology.linkChanged(this);
+	}
+	
+	/**
+	 * Returns the cost of the link to the routing
+	 * @return the cost of the link
+	 */
+	public int getCost(){
+		return this.cost;
+	}
+	
+	/**
+	 * Sets the routing that needs to hear about changes to this link
+	 * @param topology the topology database the link is in
+	 */
+	void setTopology(TopologyDatabase topology){
+		this.topology = topology;
+	}
+	
+	/**
+	 * The cells in flight in one direction of the link.  Cells are kept in a ring in the
+	 * order they were sent, along with the time each one arrives.  Since every cell takes
+	 * the same time to cross, the cells that arrive are always at the front of the ring.
+	 * With a capacity of C cells and a delay of D time units, at most C*D cells are ever in
+	 * flight, so the ring never has to grow for a link with a capacity.
+	 */
+	private class Pipe{
+		ATMCell[] cells = new ATMCell[16]; // the cells in flight, oldest first from head
+		int[] arrival = new int[16]; // the time each cell arrives
+		int head = 0; // where the oldest cell in flight is
+		int count = 0; // the number of cells in flight
+		int time = 0; // the number of time units this direction has seen
+		
+		void add(ATMCell cell, int delay){
+			int pos;
+			
+			if(this.count == this.cells.length)
+				this.reserve(this.cells.length * 2);
+			pos = (this.head + this.count) % this.cells.length;
+			this.cells[pos] = cell;
+			this.arrival[pos] = this.time + delay;
+			this.count++;
+		}
+		
+		void tick(ATMNIC to){
+			this.time++;
+			while(this.count > 0 && this.arrival[this.head] <= this.time){
+				to.receiveCell(this.cells[this.head]);
+				this.cells[this.head] = null;
+				this.head = (this.head + 1) % this.cells.length;
+				this.count--;
+			}
+		}
+		
+		void reserve(int size){
+			ATMCell[] newCells;
+			int[] newArrival;
+			
+			if(size <= this.cells.length)
+				return;
+			newCells = new ATMCell[size];
+			newArrival = new int[size];
+			for(int i = 0; i < this.count; i++){
+				newCells[i] = this.cells[(this.head + i) % this.cells.length];
+				newArrival[i] = this.arrival[(this.head + i) % this.cells.length];
+			}
+			this.cells = newCells;
+			this.arrival = newArrival;
+			this.head = 0;
+		}
+	}
 }
@@ -0,0 +1,510 @@
+package NetworkElements;
+
+import java.util.*;
+import DataTypes.*;
+
+/**
+ * Link state routing for a network of ATM routers.  Routers are added to the database, which
+ * discovers their neighbours by looking at the router at the other end of each of their
+ * links, and keeps a shortest path tree rooted at every router.  The first hop of each path
+ * is written into the router's next hop table, so addNextHopInterface() no longer has to be
+ * called by hand.
+ *
+ * The trees are built and kept up to date incrementally.  When a link gets cheaper (or comes
+ * up, or is discovered), Dijkstra is continued from the routers it brings closer.  When a link
+ * gets more expensive (or goes down), only trees that used the link are touched: the subtree
+ * hanging off the link is cut loose, reattached from its neighbours outside the subtree, and
+ * Dijkstra is continued from there.  Either way only the routers whose paths change are looked
+ * at, so a link change in a network of thousands of routers doesn't rebuild every table.
+ *
+ * Source routing sees the bandwidth left on each link as it was at the last advertise(), 
+ * the way link state advertisements would have flooded it, rather than reading every nic
+ * live.  So paths don't depend on the order routers happen to run in within a time unit.
+ * The database is shared by every router, so all of its methods are synchronized.
+ */
+public class TopologyDatabase {
+	private static final int INFINITY = Integer.MAX_VALUE; // the cost of a link that is down
+	private HashMap<Integer, Integer> indexOf = new HashMap<Integer, Integer>(); // the index of each router, by address
+	private ArrayList<ATMRouter> routers = new ArrayList<ATMRouter>(); // the routers, by index
+	private ArrayList<ArrayList<Edge>> adjacency = new ArrayList<ArrayList<Edge>>(); // the links out of each router, by index
+	private HashMap<OtoOLink, Edge> linkEdges = new HashMap<OtoOLink, Edge>(); // one direction of each link that is known
+	private ArrayList<Tree> trees = new ArrayList<Tree>(); // the shortest path tree rooted at each router, by index
+	private long[] heap = new long[64]; // the Dijkstra heap, each entry is (distance << 32 | router index)
+	private int heapSize = 0; // the number of entries in the heap
+
+	/**
+	 * Adds a router to the database and discovers the links between it and the routers
+	 * already in the database.  Adding a router that is already in the database discovers
+	 * any links that were connected to it since.
+	 * @param router the router to add
+	 */
+	public synchronized void addRouter(ATMRouter router){
+		Integer index = this.indexOf.get(router.getAddress());
+
+		if(index == null){
+			index = this.routers.size();
+			this.indexOf.put(router.getAddress(), index);
+			this.routers.add(router);
+			this.adjacency.add(new ArrayList<Edge>());
+			for(Tree tree : this.trees)
+				tree.grow(this.routers.size());
+			this.trees.add(new Tree(index, this.routers.size()));
+			router.setTopology(this);
+		}
+
+		// neighbour discovery, a neighbour is a router at the other end of a link
+		for(ATMNIC nic : router.getNICs()){
+			OtoOLink link = nic.getLink();
+			ATMNIC otherNIC;
+			Integer otherIndex;
+			Edge out, back;
+
+			if(link == null || this.linkEdges.containsKey(link))
+				continue;
+			otherNIC = link.getOtherNIC(nic);
+			if(otherNIC == null || !(otherNIC.getParent() instanceof ATMRouter))
+				continue;
+			otherIndex = this.indexOf.get(((ATMRouter) otherNIC.getParent()).getAddress());
+			if(otherIndex == null)
+				continue; // the link is found when the router at the other end is added
+
+			out = new Edge(index, otherIndex, nic);
+			back = new Edge(otherIndex, index, otherNIC);
+			out.reverse = back;
+			back.reverse = out;
+			this.adjacency.get(index).add(out);
+			this.adjacency.get(otherIndex).add(back);
+			out.advertise();
+			back.advertise();
+			this.linkEdges.put(link, out);
+			router.addNeighbor(((ATMRouter) otherNIC.getParent()).getAddress(), nic);
+			((ATMRouter) otherNIC.getParent()).addNeighbor(router.getAddress(), otherNIC);
+			link.setTopology(this);
+			this.linkChanged(link);
+		}
+	}
+
+	/**
+	 * Brings the routes up to date after a link has gone up or down or changed its cost
+	 * @param link the link that changed
+	 */
+	public synchronized void linkChanged(OtoOLink link){
+		Edge edge = this.linkEdges.get(link);
+		int cost;
+
+		if(edge == null)
+			return;
+		cost = link.isUp() ? link.getCost() : INFINITY;
+		this.setCost(edge, cost);
+		this.setCost(edge.reverse, cost);
+	}
+
+	/**
+	 * Returns the cost of the shortest path between two routers
+	 * @param from the address of the router the path starts at
+	 * @param to the address of the router the path ends at
+	 * @return the cost of the path, or -1 if there is no path
+	 */
+	public synchronized int getDistance(int from, int to){
+		Integer fromIndex = this.indexOf.get(from), toIndex = this.indexOf.get(to);
+		int distance;
+
+		if(fromIndex == null || toIndex == null)
+			return -1;
+		distance = this.trees.get(fromIndex).dist[toIndex];
+		return distance == INFINITY ? -1 : distance;
+	}
+
+	/**
+	 * Works out a path for a source routed connection.  Only links that are up, had enough
+	 * bandwidth left for the connection when it was last advertised and haven't been cranked
+	 * back from are used.
+	 * @param from the address of the router the path starts at
+	 * @param to the address of the router the path ends at
+	 * @param traffic the traffic contract of the connection
+	 * @param blocked the links that have been cranked back from (see linkKey())
+	 * @return the addresses of the routers on the path after from, ending with to.  null if
+	 * there is no path that meets the constraints.
+	 */
+	public synchronized int[] findPath(int from, int to, TrafficDescriptor traffic, Set<Long> blocked){
+		Integer fromIndex = this.indexOf.get(from), toIndex = this.indexOf.get(to);
+		Edge[] links;
+		int[] path;
+
+		if(fromIndex == null || toIndex == null || fromIndex.equals(toIndex))
+			return null;
+		links = this.shortestPath(fromIndex, toIndex, traffic, blocked);
+		if(links == null)
+			return null;
+		path = new int[links.length];
+		for(int i = 0; i < links.length; i++)
+			path[i] = this.routers.get(links[i].to).getAddress();
+		return path;
+	}
+
+	/**
+	 * Provisions a virtual path connection between two routers.  The path takes the shortest
+	 * route that has bandwidth for it in both directions, and the bandwidth is reserved on
+	 * every link along it.  Each router in the middle gets a cross connect that switches the
+	 * path on its VPI alone, and the routers at the ends get a VirtualPathNIC that setups for
+	 * the other end are sent out of.  Calls on the path then cost no table entries and no
+	 * signaling in the middle of the path.
+	 * @param from the router at one end of the path
+	 * @param to the router at the other end of the path
+	 * @param traffic the traffic contract of the whole path
+	 * @return the end of the path at from, or null if no route can carry the path
+	 */
+	public synchronized VirtualPathNIC setupVP(ATMRouter from, ATMRouter to, TrafficDescriptor traffic){
+		Integer fromIndex = this.indexOf.get(from.getAddress()), toIndex = this.indexOf.get(to.getAddress());
+		HashSet<Long> blocked = new HashSet<Long>();
+		Edge[] links;
+		Edge oneWay;
+		int[] forward, backward;
+		int hops;
+
+		if(fromIndex == null || toIndex == null || fromIndex.equals(toIndex))
+			return null;
+		//the search only looks at the way there, so links that can't carry the way back are blocked
+		while((links = this.shortestPath(fromIndex, toIndex, traffic, blocked)) != null){
+			oneWay = null;
+			for(Edge link : links)
+				if(link.reverse.nic.getEquivalentBandwidth(traffic) > link.reverse.available)
+					oneWay = link;
+			if(oneWay == null)
+				break;
+			blocked.add(linkKey(this.routers.get(oneWay.from).getAddress(), this.routers.get(oneWay.to).getAddress()));
+		}
+		if(links == null)
+			return null;
+
+		hops = links.length;
+		forward = new int[hops];
+		backward = new int[hops];
+		for(int i = 0; i < hops; i++){
+			forward[i] = -1;
+			backward[i] = -1;
+			if(!links[i].nic.reserveBandwidth(traffic)){
+				this.releaseVP(links, forward, backward, i, false, traffic);
+				return null;
+			}
+			if(!links[i].reverse.nic.reserveBandwidth(traffic)){
+				this.releaseVP(links, forward, backward, i, true, traffic);
+				return null;
+			}
+			forward[i] = links[i].nic.getOutVPIs().allocate();
+			backward[i] = links[i].reverse.nic.getOutVPIs().allocate();
+			if(forward[i] == -1 || backward[i] == -1){
+				this.releaseVP(links, forward, backward, i + 1, false, traffic);
+				return null;
+			}
+			links[i].nic.openVP(forward[i], traffic);
+			links[i].reverse.nic.openVP(backward[i], traffic);
+		}
+
+		//cross connect the routers in the middle, both ways
+		for(int i = 1; i < hops; i++){
+			ATMRouter router = this.routers.get(links[i].from);
+			router.connectVP(links[i - 1].reverse.nic, forward[i - 1], links[i].nic, forward[i]);
+			router.connectVP(links[i].nic, backward[i], links[i - 1].reverse.nic, backward[i - 1]);
+		}
+		to.endVP(links[hops - 1].reverse.nic, forward[hops - 1], backward[hops - 1], from.getAddress(), traffic);
+		return from.endVP(links[0].nic, backward[0], forward[0], to.getAddress(), traffic);
+	}
+
+	/**
+	 * Gives back what a virtual path that couldn't be finished had taken on its links
+	 * @param links the links of the path
+	 * @param forward the VPIs taken on the way there (-1 where none was taken)
+	 * @param backward the VPIs taken on the way back (-1 where none was taken)
+	 * @param done the number of links both ways were reserved on
+	 * @param halfDone true if the way there was also reserved on link done
+	 * @param traffic the traffic contract of the path
+	 */
+	private void releaseVP(Edge[] links, int[] forward, int[] backward, int done, boolean halfDone, TrafficDescriptor traffic){
+		for(int i = 0; i < done; i++){
+			links[i].nic.releaseBandwidth(traffic);
+			links[i].reverse.nic.releaseBandwidth(traffic);
+			links[i].nic.getOutVPIs().release(forward[i]);
+			links[i].reverse.nic.getOutVPIs().release(backward[i]);
+		}
+		if(halfDone)
+			links[done].nic.releaseBandwidth(traffic);
+	}
+
+	/**
+	 * Runs Dijkstra from one router to another over the links that are up, had enough 
+	 * bandwidth for a connection when they were last advertised and aren't blocked
+	 * @param fromIndex the index of the router the path starts at
+	 * @param toIndex the index of the router the path ends at
+	 * @param traffic the traffic contract of the connection
+	 * @param blocked the links that can't be used (see linkKey())
+	 * @return the links on the path in order, or null if there is no path
+	 */
+	private Edge[] shortestPath(int fromIndex, int toIndex, TrafficDescriptor traffic, Set<Long> blocked){
+		int[] dist;
+		Edge[] via, path;
+		int hops = 0;
+
+		dist = new int[this.routers.size()];
+		via = new Edge[this.routers.size()];
+		Arrays.fill(dist, INFINITY);
+		dist[fromIndex] = 0;
+		this.push(fromIndex);
+
+		while(this.heapSize > 0){
+			long entry = this.pop();
+			int node = (int) entry;
+			int distance = (int) (entry >>> 32);
+
+			if(distance != dist[node])
+				continue;
+			if(node == toIndex)
+				break;
+			for(Edge edge : this.adjacency.get(node)){
+				if(edge.cost == INFINITY || distance + edge.cost >= dist[edge.to])
+					continue;
+				if(edge.nic.getEquivalentBandwidth(traffic) > edge.available || blocked.contains(linkKey(
+						this.routers.get(edge.from).getAddress(), this.routers.get(edge.to).getAddress())))
+					continue;
+				dist[edge.to] = distance + edge.cost;
+				via[edge.to] = edge;
+				this.push(((long) dist[edge.to] << 32) | edge.to);
+			}
+		}
+		this.heapSize = 0;
+		if(dist[toIndex] == INFINITY)
+			return null;
+
+		for(int node = toIndex; node != fromIndex; node = via[node].from)
+			hops++;
+		path = new Edge[hops];
+		for(int node = toIndex; node != fromIndex; node = via[node].from)
+			path[--hops] = via[node];
+		return path;
+	}
+
+	/**
+	 * Updates the bandwidth left on every link from the nics at their ends, as if each router
+	 * had flooded a link state advertisement.  Should be called between time units.
+	 */
+	public synchronized void advertise(){
+		for(ArrayList<Edge> edges : this.adjacency)
+			for(Edge edge : edges)
+				edge.advertise();
+	}
+
+	/**
+	 * Returns the key a link is known by when it is cranked back from
+	 * @param from the address of the router before the link
+	 * @param to the address of the router after the link
+	 * @return the key for the link
+	 */
+	public static long linkKey(int from, int to){
+		return ((long) from << 32) | (to & 0xffffffffL);
+	}
+
+	/**
+	 * Changes the cost of one direction of a link and updates every tree it affects
+	 * @param edge the direction of the link
+	 * @param cost the new cost (INFINITY if the link is down)
+	 */
+	private void setCost(Edge edge, int cost){
+		int oldCost = edge.cost;
+
+		if(cost == oldCost)
+			return;
+		edge.cost = cost;
+		for(Tree tree : this.trees){
+			if(cost < oldCost)
+				this.decrease(tree, edge);
+			else
+				this.increase(tree, edge);
+		}
+	}
+
+	/**
+	 * Updates a tree after a link got cheaper.  If the link gives a shorter path to the router
+	 * at its far end, Dijkstra is continued from that router.
+	 * @param tree the tree to update
+	 * @param edge the direction of the link that got cheaper
+	 */
+	private void decrease(Tree tree, Edge edge){
+		if(tree.dist[edge.from] == INFINITY)
+			return;
+		if(tree.dist[edge.from] + edge.cost < tree.dist[edge.to]){
+			this.relax(tree, edge, tree.dist[edge.from] + edge.cost);
+			this.run(tree);
+		}
+	}
+
+	/**
+	 * Updates a tree after a link got more expensive.  Nothing changes unless the tree uses
+	 * the link, in which case every router below the link is cut loose, given the best path
+	 * it can get through a neighbour that is still attached, and Dijkstra is continued from
+	 * there.  Routers that can't be reached any more are removed from the next hop table.
+	 * @param tree the tree to update
+	 * @param edge the direction of the link that got more expensive
+	 */
+	private void increase(Tree tree, Edge edge){
+		ArrayList<Integer> subtree;
+		ATMRouter root;
+
+		if(tree.via[edge.to] != edge)
+			return;
+
+		// find everything below the link in the tree
+		subtree = new ArrayList<Integer>();
+		subtree.add(edge.to);
+		for(int i = 0; i < subtree.size(); i++)
+			for(Edge child : this.adjacency.get(subtree.get(i)))
+				if(tree.via[child.to] == child)
+					subtree.add(child.to);
+		for(int node : subtree){
+			tree.dist[node] = INFINITY;
+			tree.via[node] = null;
+			tree.firstHop[node] = null;
+		}
+
+		// reattach it from the routers that are still in the tree
+		for(int node : subtree){
+			for(Edge out : this.adjacency.get(node)){
+				Edge in = out.reverse;
+				if(in.cost != INFINITY && tree.dist[in.from] != INFINITY &&
+						tree.dist[in.from] + in.cost < tree.dist[node])
+					this.relax(tree, in, tree.dist[in.from] + in.cost);
+			}
+		}
+		this.run(tree);
+
+		root = this.routers.get(tree.root);
+		for(int node : subtree)
+			if(tree.dist[node] == INFINITY)
+				root.removeNextHopInterface(this.routers.get(node).getAddress());
+	}
+
+	/**
+	 * Gives a router a shorter path in a tree, updates the root's next hop table and
+	 * queues the router to have its links looked at
+	 * @param tree the tree being updated
+	 * @param edge the last link on the new path
+	 * @param distance the cost of the new path
+	 */
+	private void relax(Tree tree, Edge edge, int distance){
+		tree.dist[edge.to] = distance;
+		tree.via[edge.to] = edge;
+		tree.firstHop[edge.to] = edge.from == tree.root ? edge.nic : tree.firstHop[edge.from];
+		this.routers.get(tree.root).addNextHopInterface(this.routers.get(edge.to).getAddress(), 
+				tree.firstHop[edge.to]);
+		this.push(((long) distance << 32) | edge.to);
+	}
+
+	/**
+	 * Runs Dijkstra on a tree until the heap is empty
+	 * @param tree the tree being updated
+	 */
+	private void run(Tree tree){
+		while(this.heapSize > 0){
+			long entry = this.pop();
+			int node = (int) entry;
+			int distance = (int) (entry >>> 32);
+
+			// the router was given a shorter path after this entry was queued
+			if(distance != tree.dist[node])
+				continue;
+			for(Edge edge : this.adjacency.get(node))
+				if(edge.cost != INFINITY && distance + edge.cost < tree.dist[edge.to])
+					this.relax(tree, edge, distance + edge.cost);
+		}
+	}
+
+	/**
+	 * Adds an entry to the heap
+	 * @param entry the entry (distance << 32 | router index)
+	 */
+	private void push(long entry){
+		int pos = this.heapSize++;
+
+		if(this.heapSize > this.heap.length)
+			this.heap = Arrays.copyOf(this.heap, this.heap.length * 2);
+		while(pos > 0 && this.heap[(pos - 1) / 2] > entry){
+			this.heap[pos] = this.heap[(pos - 1) / 2];
+			pos = (pos - 1) / 2;
+		}
+		this.heap[pos] = entry;
+	}
+
+	/**
+	 * Takes the smallest entry off the heap
+	 * @return the entry with the smallest distance
+	 */
+	private long pop(){
+		long top = this.heap[0];
+		long last = this.heap[--this.heapSize];
+		int pos = 0;
+
+		while(2 * pos + 1 < this.heapSize){
+			int child = 2 * pos + 1;
+			if(child + 1 < this.heapSize && this.heap[child + 1] < this.heap[child])
+				child++;
+			if(this.heap[child] >= last)
+				break;
+			this.heap[pos] = this.heap[child];
+			pos = child;
+		}
+		this.heap[pos] = last;
+		return top;
+	}
+
+	/**
+	 * One direction of a link between two routers
+	 */
+	private class Edge{
+		int from; // the index of the router the link goes out of
+		int to; // the index of the router the link goes to
+		ATMNIC nic; // the nic the link goes out of
+		int cost = INFINITY; // the cost of the link (INFINITY if it is down)
+		double available; // the bandwidth left on the link when it was last advertised
+		Edge reverse; // the other direction of the link
+
+		Edge(int from, int to, ATMNIC nic){
+			this.from = from;
+			this.to = to;
+			this.nic = nic;
+		}
+
+		void advertise(){
+			this.available = this.nic.getLinkCapacity() - this.nic.getCommittedBandwidth();
+		}
+	}
+
+	/**
+	 * The shortest path tree rooted at one router, indexed by router index
+	 */
+	private class Tree{
+		int root; // the index of the router the tree is rooted at
+		int[] dist; // the cost of the path to each router
+		Edge[] via; // the last link on the path to each router
+		ATMNIC[] firstHop; // the nic the path to each router leaves the root on
+
+		Tree(int root, int size){
+			this.root = root;
+			this.dist = new int[0];
+			this.via = new Edge[0];
+			this.firstHop = new ATMNIC[0];
+			this.grow(size);
+			this.dist[root] = 0;
+		}
+
+		void grow(int size){
+			int oldSize = this.dist.length;
+
+			if(size <= oldSize)
+				return;
+			size = Math.max(size, oldSize * 2);
+			this.dist = Arrays.copyOf(this.dist, size);
+			this.via = Arrays.copyOf(this.via, size);
+			this.firstHop = Arrays.copyOf(this.firstHop, size);
+			Arrays.fill(this.dist, oldSize, size, INFINITY);
+		}
+	}
+}
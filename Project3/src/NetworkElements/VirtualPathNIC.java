@@ -0,0 +1,80 @@
+package NetworkElements;
+
+import DataTypes.*;
+
+/**
+ * The end of a virtual path connection at a router.  To the router it looks just like another
+ * nic: setups for the router at the far end of the path are sent out of it, VCs are allocated
+ * on it (the VCIs of the path) and cells are switched to and from it.  Cells sent out of it
+ * are given the path's VPI and put on the physical nic the path leaves on.  The routers in 
+ * the middle of the path switch on the VPI alone, so they never see the calls on the path.
+ *
+ * Virtual path nics have no link and no buffers of their own, the physical nic does the
+ * queueing (the whole path shares one queue there, see ATMNIC.openVP()).
+ */
+public class VirtualPathNIC extends ATMNIC {
+	private ATMNIC physicalNIC; // the nic the virtual path leaves the router on
+	private int outVPI; // the VPI on cells sent down the path
+	private int farEnd; // the address of the router at the other end of the path
+	
+	/**
+	 * Creates the end of a virtual path at a router
+	 * @param parent the router the path ends at
+	 * @param physicalNIC the nic the path leaves the router on
+	 * @param outVPI the VPI on cells sent down the path
+	 * @param farEnd the address of the router at the other end of the path
+	 */
+	public VirtualPathNIC(ATMRouter parent, ATMNIC physicalNIC, int outVPI, int farEnd){
+		super(parent);
+		this.physicalNIC = physicalNIC;
+		this.outVPI = outVPI;
+		this.farEnd = farEnd;
+	}
+	
+	/**
+	 * Sends a cell down the virtual path, by giving it the path's VPI and passing it to the 
+	 * physical nic
+	 * @param cell the cell to be sent
+	 * @param parent the router the cell came from
+	 */
+	public void sendCell(ATMCell cell, IATMCellConsumer parent){
+		cell.setVPI(this.outVPI);
+		this.physicalNIC.sendCell(cell, parent);
+	}
+	
+	/**
+	 * Does nothing, the physical nic sends the path's cells
+	 */
+	public void clearOutputBuffers(){
+	}
+	
+	/**
+	 * Does nothing, the router hands cells that come in on the path straight to it
+	 */
+	public void clearInputBuffers(){
+	}
+	
+	/**
+	 * Returns the nic the virtual path leaves the router on
+	 * @return the physical nic under the path
+	 */
+	public ATMNIC getPhysicalNIC(){
+		return this.physicalNIC;
+	}
+	
+	/**
+	 * Returns the VPI on cells sent down the path
+	 * @return the VPI on cells sent down the path
+	 */
+	public int getOutVPI(){
+		return this.outVPI;
+	}
+	
+	/**
+	 * Returns the address of the router at the other end of the path
+	 * @return the address of the router at the other end of the path
+	 */
+	public int getFarEnd(){
+		return this.farEnd;
+	}
+}
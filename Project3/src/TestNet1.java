@@ -1,6 +1,7 @@
 
 import java.util.ArrayList;
 import org.junit.*;
+import DataTypes.*;
 import NetworkElements.*;
 
 
@@ -16,10 +17,13 @@ public class TestNet1 {
 	private int time;
 	ATMRouter r1,r2,r3,r4,r5;
 	Computer comp1,comp2;
+	ATMNIC r1n101, r2n1, r2n3, r2n101, comp1n1, comp2n1;
+	TopologyDatabase topology;
 	
 	/*The setup method.  Just zeros everything out for now.*/
 	@Before
 	public void setUp() throws Exception {
+		RandomSource.setSeed(1);
 		time = 0;
 		allConsumers = new ArrayList<IATMCellConsumer>();
 		
@@ -32,9 +36,9 @@ public class TestNet1 {
 		
 		// give the routers interfaces
 		ATMNIC r1n1 = new ATMNIC(r1);
-		ATMNIC r2n1 = new ATMNIC(r2);
+		r2n1 = new ATMNIC(r2);
 		ATMNIC r2n2 = new ATMNIC(r2);
-		ATMNIC r2n3 = new ATMNIC(r2);
+		r2n3 = new ATMNIC(r2);
 		ATMNIC r3n1 = new ATMNIC(r3);
 		ATMNIC r4n1 = new ATMNIC(r4);
 		ATMNIC r4n2 = new ATMNIC(r4);
@@ -46,48 +50,24 @@ public class TestNet1 {
 		OtoOLink l3 = new OtoOLink(r2n3, r4n1);
 		OtoOLink l4 = new OtoOLink(r4n2, r5n1);
 		
-		// Create the forwarding tables so each Router knows what interface to use
-		// to connect to another ATM router
-		// router 1 - AS9
-		r1.addNextHopInterface(3, r1n1);
-		r1.addNextHopInterface(11, r1n1);
-		r1.addNextHopInterface(13, r1n1);
-		r1.addNextHopInterface(14, r1n1);
-		
-		// router 2 - AS3
-		r2.addNextHopInterface(9, r2n1);
-		r2.addNextHopInterface(11, r2n2);
-		r2.addNextHopInterface(13, r2n3);
-		r2.addNextHopInterface(14, r2n3);
-		
-		// router 3 - AS11
-		r3.addNextHopInterface(3, r3n1);
-		r3.addNextHopInterface(9, r3n1);
-		r3.addNextHopInterface(13, r3n1);
-		r3.addNextHopInterface(14, r3n1);
-		
-		// router 4 - AS13
-		r4.addNextHopInterface(3, r4n1);
-		r4.addNextHopInterface(9, r4n1);
-		r4.addNextHopInterface(11, r4n1);
-		r4.addNextHopInterface(14, r4n2);
-		
-		// router 5 - AS14
-		r5.addNextHopInterface(3, r5n1);
-		r5.addNextHopInterface(9, r5n1);
-		r5.addNextHopInterface(11, r5n1);
-		r5.addNextHopInterface(12, r5n1);
+		// Let the routers discover each other and work out their forwarding tables
+		topology = new TopologyDatabase();
+		topology.addRouter(r1);
+		topology.addRouter(r2);
+		topology.addRouter(r3);
+		topology.addRouter(r4);
+		topology.addRouter(r5);
 		
 		// Connect a computer to r1
 		comp1 = new Computer("1");
-		ATMNIC comp1n1 = new ATMNIC(comp1);
-		ATMNIC r1n101 = new ATMNIC(r1);
+		comp1n1 = new ATMNIC(comp1);
+		r1n101 = new ATMNIC(r1);
 		OtoOLink l101 = new OtoOLink(comp1n1, r1n101);
 		
 		// Connect a computer to r2
 		comp2 = new Computer("2");
-		ATMNIC comp2n1 = new ATMNIC(comp2);
-		ATMNIC r2n101 = new ATMNIC(r2);
+		comp2n1 = new ATMNIC(comp2);
+		r2n101 = new ATMNIC(r2);
 		OtoOLink l201 = new OtoOLink(comp2n1, r2n101);
 		
 		// Add the objects that need to move in time to an array
@@ -125,6 +105,9 @@ public class TestNet1 {
 		// Move the cells from the input buffers to the output buffers
 		for(int i=0; i<this.allConsumers.size(); i++)
 			allConsumers.get(i).clearInputBuffers();
+		
+		// Let the routing hear how much bandwidth is left on each link
+		topology.advertise();
 	}
 	
 	@Test
@@ -169,6 +152,51 @@ public class TestNet1 {
 		Assert.assertTrue(true);
 	}
 	
+	/**
+	 * Sets up connections into router 3 on two different nics.  Each nic has its own input
+	 * VC space, so both connections should get VC 1 at router 3 and still be switched apart.
+	 */
+	@Test
+	public void testNet1PerPortVCs(){
+		System.out.println("**TestNet1: Test per port VC spaces**");
+		
+		tock();
+		comp1.setupConnection(13);
+		comp2.setupConnection(14);
+		for(int i=0; i<12; i++)
+			this.tock();
+		comp1.sendPacket(5);
+		comp2.sendPacket(5);
+		for(int i=0; i<6; i++)
+			this.tock();
+		Assert.assertEquals(1, r2.getCellsSwitched(r2n1, 1));
+		Assert.assertEquals(1, r2.getCellsSwitched(r2n101, 1));
+		Assert.assertEquals(2, r2.getCellsSwitched(1));
+		Assert.assertEquals(1, r4.getReassembler().getPacketsDelivered());
+		Assert.assertEquals(1, r5.getReassembler().getPacketsDelivered());
+	}
+	
+	/**
+	 * Uses up every input VC on router 9's nic to computer 1, then has computer 1 set up a
+	 * connection to router 13.  The connect gets back as far as router 9, which has no VC
+	 * to give computer 1.  Computer 1 should be released with VC_UNAVAILABLE and the
+	 * connection ended at router 3 and router 13, so none of their VCs stay in use.
+	 */
+	@Test
+	public void testNet1OutOfVCs(){
+		System.out.println("**TestNet1: Test running out of VCs**");
+		
+		while(r1n101.getInVCs().allocate() != -1);
+		tock();
+		int call = comp1.setupConnection(13);
+		for(int i=0; i<12; i++)
+			this.tock();
+		Assert.assertEquals(-1, comp1.getConnectionVC(call));
+		Assert.assertSame(ReleaseCause.VC_UNAVAILABLE, comp1.getLastReleaseCause());
+		Assert.assertFalse(r2n1.getInVCs().isAllocated(1));
+		Assert.assertFalse(r2n3.getOutVCs().isAllocated(1));
+	}
+	
 	/**
 	 * Test the tail drop mechanism by bombarding a NIC with packets and seeing
 	 * if it starts dropping after it receives maximumBufferCells packets.
@@ -186,6 +214,8 @@ public class TestNet1 {
 		for(int i= 0; i<30;i++){
 			comp2.sendPacket(5);
 		}
+		Assert.assertEquals(30, comp2n1.getMetrics().getDataCells());
+		Assert.assertEquals(10, comp2n1.getMetrics().getDataDrops());
 	}
 	
 	/**
@@ -215,6 +245,14 @@ public class TestNet1 {
 		//Now send everything to router 3
 		tock();
 		
+		//router 3's port to router 13 took comp1's cells, so all of comp2's were lost
+		PortMetrics metrics = r2n3.getMetrics();
+		Assert.assertEquals(0, metrics.getDrops(2));
+		Assert.assertEquals(20, metrics.getDrops(1));
+		Assert.assertEquals(1.0, metrics.getCellLossRatio(1), 1e-9);
+		Assert.assertEquals(20, metrics.getPacketsForwarded());
+		Assert.assertEquals(20, metrics.getPacketsLost());
+		Assert.assertEquals(100, metrics.getBitsForwarded());
 	}
 	
 	/**
@@ -266,6 +304,14 @@ public class TestNet1 {
 		tock();
 		System.out.println("***SENDING ONE LAST SMALL PACKET***");
 		comp1.sendPacket(30);
+		
+		//only the big packet lost cells
+		PortMetrics metrics = comp1n1.getMetrics();
+		Assert.assertEquals(6, metrics.getDrops(1));
+		Assert.assertEquals(6.0 / 26, metrics.getCellLossRatio(1), 1e-9);
+		Assert.assertEquals(18, metrics.getPacketsForwarded());
+		Assert.assertEquals(1, metrics.getPacketsLost());
+		Assert.assertEquals(540, metrics.getBitsForwarded());
 	}
 	
 	/**
@@ -295,5 +341,13 @@ public class TestNet1 {
 			tock();//The end signal should be processed by the network.
 		}
 		
+		//EPD let the first 3 packets in and threw the other 27 away whole
+		PortMetrics metrics = comp1n1.getMetrics();
+		Assert.assertEquals(180, metrics.getCells(1));
+		Assert.assertEquals(162, metrics.getDrops(1));
+		Assert.assertEquals(0.9, metrics.getCellLossRatio(1), 1e-9);
+		Assert.assertEquals(3, metrics.getPacketsForwarded());
+		Assert.assertEquals(27, metrics.getPacketsLost());
+		Assert.assertEquals(6000, metrics.getBitsForwarded());
 	}
 }
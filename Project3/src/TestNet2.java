@@ -1,6 +1,9 @@
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
 
+import DataTypes.*;
 import NetworkElements.*;
 import org.junit.*;
 
@@ -20,6 +23,9 @@ public class TestNet2 {
 
 	ATMRouter r1,r2,r3,r4,r5,r6,r7;
 	Computer comp1,comp2,comp3,comp4,comp5;
+	ATMNIC r1ncomp1, r1n3, r5n7, comp1nr1, comp4nr6;
+	TopologyDatabase topology;
+	OtoOLink l13, l35, l45;
 	
 	/**
 	 * moves time forward in all of the networks objects, so that cells take some amount of time to
@@ -37,10 +43,14 @@ public class TestNet2 {
 		// Move the cells from the input buffers to the output buffers
 		for(int i=0; i<this.allConsumers.size(); i++)
 			allConsumers.get(i).clearInputBuffers();
+		
+		// Let the routing hear how much bandwidth is left on each link
+		topology.advertise();
 	}
 	
 	@Before
 	public void setUp() throws Exception {
+		RandomSource.setSeed(1);
 		time = 0;
 		allConsumers = new ArrayList<IATMCellConsumer>();
 		
@@ -54,7 +64,7 @@ public class TestNet2 {
 		r7 = new ATMRouter(7);
 		
 		// give the routers interfaces
-		ATMNIC r1n3 = new ATMNIC(r1);
+		r1n3 = new ATMNIC(r1);
 		ATMNIC r2n4 = new ATMNIC(r2);
 		ATMNIC r3n1 = new ATMNIC(r3);
 		ATMNIC r3n5 = new ATMNIC(r3);
@@ -63,80 +73,32 @@ public class TestNet2 {
 		ATMNIC r5n3 = new ATMNIC(r5);
 		ATMNIC r5n4 = new ATMNIC(r5);
 		ATMNIC r5n6 = new ATMNIC(r5);
-		ATMNIC r5n7 = new ATMNIC(r5);
+		r5n7 = new ATMNIC(r5);
 		ATMNIC r6n5 = new ATMNIC(r6);
 		ATMNIC r7n5 = new ATMNIC(r7);
 		
 		// physically connect the router's nics
-		OtoOLink l13 = new OtoOLink(r1n3,r3n1);
+		l13 = new OtoOLink(r1n3,r3n1);
 		OtoOLink l24 = new OtoOLink(r2n4,r4n2);
-		OtoOLink l35 = new OtoOLink(r3n5,r5n3);
-		OtoOLink l45 = new OtoOLink(r4n5,r5n4);
+		l35 = new OtoOLink(r3n5,r5n3);
+		l45 = new OtoOLink(r4n5,r5n4);
 		OtoOLink l56 = new OtoOLink(r5n6, r6n5);
 		OtoOLink l57 = new OtoOLink(r5n7,r7n5);
 		
-		// Create the forwarding tables so each Router knows what interface to use
-		// to connect to another ATM router
-		// router 1 - AS1
-		r1.addNextHopInterface(2, r1n3);
-		r1.addNextHopInterface(3, r1n3);
-		r1.addNextHopInterface(4, r1n3);
-		r1.addNextHopInterface(5, r1n3);
-		r1.addNextHopInterface(6, r1n3);
-		r1.addNextHopInterface(7, r1n3);
-		
-		// router 2 - AS2
-		r2.addNextHopInterface(1, r2n4);
-		r2.addNextHopInterface(3, r2n4);
-		r2.addNextHopInterface(4, r2n4);
-		r2.addNextHopInterface(5, r2n4);
-		r2.addNextHopInterface(6, r2n4);
-		r2.addNextHopInterface(7, r2n4);
-		
-		// router 3 - AS3
-		r3.addNextHopInterface(1, r3n1);
-		r3.addNextHopInterface(2, r3n5);
-		r3.addNextHopInterface(4, r3n5);
-		r3.addNextHopInterface(5, r3n5);
-		r3.addNextHopInterface(6, r3n5);
-		r3.addNextHopInterface(7, r3n5);
-		
-		// router 4 - AS4
-		r4.addNextHopInterface(1, r4n5);
-		r4.addNextHopInterface(2, r4n2);
-		r4.addNextHopInterface(3, r3n5);
-		r4.addNextHopInterface(5, r4n5);
-		r4.addNextHopInterface(6, r4n5);
-		r4.addNextHopInterface(7, r4n5);
-		
-		// router 5 - AS5
-		r5.addNextHopInterface(1, r5n3);
-		r5.addNextHopInterface(2, r5n4);
-		r5.addNextHopInterface(3, r5n3);
-		r5.addNextHopInterface(4, r5n4);
-		r5.addNextHopInterface(6, r5n6);
-		r5.addNextHopInterface(7, r5n7);
-
-		//router 6 - AS6
-		r6.addNextHopInterface(1, r6n5);
-		r6.addNextHopInterface(2, r6n5);
-		r6.addNextHopInterface(3, r6n5);
-		r6.addNextHopInterface(4, r6n5);
-		r6.addNextHopInterface(5, r6n5);
-		r6.addNextHopInterface(7, r6n5);
-
-		//router 7 - AS7
-		r7.addNextHopInterface(1, r7n5);
-		r7.addNextHopInterface(2, r7n5);
-		r7.addNextHopInterface(3, r7n5);
-		r7.addNextHopInterface(4, r7n5);
-		r7.addNextHopInterface(5, r7n5);
-		r7.addNextHopInterface(6, r7n5);
+		// Let the routers discover each other and work out their forwarding tables
+		topology = new TopologyDatabase();
+		topology.addRouter(r1);
+		topology.addRouter(r2);
+		topology.addRouter(r3);
+		topology.addRouter(r4);
+		topology.addRouter(r5);
+		topology.addRouter(r6);
+		topology.addRouter(r7);
 		
 		// Connect a computer to r1
 		comp1 = new Computer("1");
-		ATMNIC comp1nr1 = new ATMNIC(comp1);
-		ATMNIC r1ncomp1 = new ATMNIC(r1);
+		comp1nr1 = new ATMNIC(comp1);
+		r1ncomp1 = new ATMNIC(r1);
 		OtoOLink lcomp1r1 = new OtoOLink(r1ncomp1, comp1nr1);
 		
 		// Connect two computers to r2
@@ -152,7 +114,7 @@ public class TestNet2 {
 		
 		//Connect a computer to r6
 		comp4 = new Computer("4");
-		ATMNIC comp4nr6 = new ATMNIC(comp4);
+		comp4nr6 = new ATMNIC(comp4);
 		ATMNIC r6ncomp4 = new ATMNIC(r6);
 		OtoOLink lcomp4r6 = new OtoOLink(comp4nr6,r6ncomp4);
 		
@@ -204,6 +166,28 @@ public class TestNet2 {
 			this.tock();
 	}
 	
+	/**
+	 * Two computers on router 2 set up connections at the same time.  Router 2 is only
+	 * allowed one setup in progress, so one of them should get a wait, back off and 
+	 * then get through once the first connection is set up.
+	 */
+	@Test
+	public void TestNet2TestConcurrentSetup(){
+		System.out.println("**Test Net 2: Test concurrent setups **");
+		
+		r2.setMaxPendingSetups(1);
+		tock();
+		int to7 = comp2.setupConnection(7);
+		int to6 = comp3.setupConnection(6);
+		for(int i=0; i<20; i++)
+			this.tock();
+		//router 2 holds one setup at a time, so computer 3's setup is told to wait, backs off and gets through
+		Assert.assertTrue(comp2.getConnectionVC(to7) >= 0);
+		Assert.assertTrue(comp3.getConnectionVC(to6) >= 0);
+		Assert.assertEquals(0, comp2.getSetupWaits(to7));
+		Assert.assertTrue(comp3.getSetupWaits(to6) >= 1);
+	}
+	
 	/**
 	 * A test to ensure that the end message works the way its supposed to.
 	 * Connections are established as they are in Test 1 and then the 'end'
@@ -259,6 +243,705 @@ public class TestNet2 {
 		tock();
 	}
 	
+	/**
+	 * Sends a few multi cell packets over a connection and checks that the router at
+	 * the end of the VC put all of them back together.
+	 */
+	@Test
+	public void TestNet2TestReassembly(){
+		System.out.println("**Test Net 2: Test reassembly**");
+		tock();
+		comp1.setupConnection(5);
+		for(int i=0; i<12; i++)
+			this.tock();
+		for(int i = 0;i<3;i++)
+			comp1.sendPacket(1000);
+		for(int i=0; i<6; i++)
+			this.tock();
+		System.out.println("Router 5 " + r5.getReassembler());
+		System.out.println(r1.exportMetrics());
+		Assert.assertEquals(3, r5.getReassembler().getPacketsDelivered());
+		Assert.assertEquals(9, r1.getDataCellsReceived());
+	}
+	
+	/**
+	 * Sets up connections to router 3 from computer 1 (in on router 3's nic from router 1)
+	 * and from computer 4 (in on its nic from router 5).  Both get VC 1 on their nic.  The
+	 * link from router 1 is slowed to one cell per time unit so the two computers' cells
+	 * arrive interleaved, and router 3 should still put every packet back together.
+	 */
+	@Test
+	public void TestNet2TestReassemblyPerPort(){
+		System.out.println("**Test Net 2: Test reassembly of the same VC on two ports**");
+		tock();
+		comp1.setupConnection(3);
+		comp4.setupConnection(3);
+		for(int i=0; i<12; i++)
+			this.tock();
+		l13.setCapacity(1);
+		for(int i = 0;i<3;i++){
+			comp1.sendPacket(1000);
+			comp4.sendPacket(1000);
+		}
+		for(int i=0; i<20; i++)
+			this.tock();
+		System.out.println("Router 3 " + r3.getReassembler());
+		Assert.assertEquals(6, r3.getReassembler().getPacketsDelivered());
+		Assert.assertEquals(0, r3.getReassembler().getPacketsCorrupted());
+		Assert.assertEquals(0, r3.getReassembler().getCellsDiscarded());
+	}
+	
+	/**
+	 * Runs the reassembly test with the network stepped on four worker threads instead
+	 * of by tock().  The results should be the same.
+	 */
+	@Test
+	public void TestNet2TestParallelStep(){
+		System.out.println("**Test Net 2: Test parallel stepping**");
+		NetworkStepper stepper = new NetworkStepper(4);
+		for(int i=0; i<this.allConsumers.size(); i++)
+			stepper.add(allConsumers.get(i));
+		stepper.setTopology(topology);
+		
+		stepper.step();
+		comp1.setupConnection(5);
+		stepper.step(12);
+		for(int i = 0;i<3;i++)
+			comp1.sendPacket(1000);
+		stepper.step(6);
+		stepper.shutdown();
+		System.out.println("Router 5 " + r5.getReassembler());
+		Assert.assertEquals(3, r5.getReassembler().getPacketsDelivered());
+	}
+	
+	/**
+	 * Runs the same congested scenario on one thread and on 8, and checks that every
+	 * router's counters come out the same
+	 */
+	@Test
+	public void TestNet2TestParallelStepDeterministic() throws Exception{
+		System.out.println("**Test Net 2: Test parallel stepping gives the same results**");
+		String sequential = this.runStepped(1);
+		this.setUp();
+		String parallel = this.runStepped(8);
+		Assert.assertEquals(sequential, parallel);
+		Assert.assertTrue(r6.getReassembler().getPacketsDelivered() > 0);
+		Assert.assertTrue(r7.getReassembler().getPacketsDelivered() > 0);
+	}
+	
+	/**
+	 * Steps a network with a router that throws part way through a phase, on 2 threads.
+	 * The exception has to get back to the caller rather than leave the step half done.
+	 */
+	@Test
+	public void TestNet2TestParallelStepFailure(){
+		System.out.println("**Test Net 2: Test parallel stepping passes on failures**");
+		NetworkStepper stepper = new NetworkStepper(2);
+		boolean thrown = false;
+		stepper.add(r1);
+		stepper.add(new ATMRouter(8){
+			public void clearInputBuffers(){
+				throw new IllegalStateException("router 8 failed");
+			}
+		});
+		try{
+			stepper.step();
+		}
+		catch(IllegalStateException e){
+			thrown = true;
+		}
+		stepper.shutdown();
+		Assert.assertTrue(thrown);
+	}
+	
+	/**
+	 * Has four computers set up connections across a slowed down link 3-5 and send 20 packets
+	 * each, stepping the network with a stepper
+	 * @param threads the number of workers the stepper runs on
+	 * @return the metrics of every router, and the packets each one put back together
+	 */
+	private String runStepped(int threads){
+		StringBuilder result = new StringBuilder();
+		ATMRouter[] routers = {r1,r2,r3,r4,r5,r6,r7};
+		NetworkStepper stepper = new NetworkStepper(threads);
+		for(int i=0; i<this.allConsumers.size(); i++)
+			stepper.add(allConsumers.get(i));
+		stepper.setTopology(topology);
+		
+		stepper.step();
+		comp1.setupConnection(6);
+		comp2.setupConnection(7);
+		comp3.setupConnection(6);
+		comp4.setupConnection(1);
+		stepper.step(12);
+		l35.setCapacity(2);
+		for(int i=0; i<20; i++){
+			comp1.sendPacket(1000);
+			comp2.sendPacket(1000);
+			comp3.sendPacket(2000);
+			comp4.sendPacket(1000);
+			stepper.step();
+		}
+		stepper.step(60);
+		stepper.shutdown();
+		for(ATMRouter router : routers)
+			result.append(router.exportMetrics()).append(router.getReassembler().getPacketsDelivered()).append('\n');
+		return result.toString();
+	}
+	
+	/**
+	 * Adds a link between routers 1 and 2, then takes it down and brings it back up.
+	 * The routing should find the shortcut, fall back to the long way round through
+	 * router 5 while it is down, and a connection should go straight across once it's
+	 * back up.
+	 */
+	@Test
+	public void TestNet2TestRouting(){
+		System.out.println("**Test Net 2: Test routing**");
+		Assert.assertEquals(4, topology.getDistance(1, 2));
+		Assert.assertEquals(3, topology.getDistance(1, 7));
+		
+		ATMNIC r1n2 = new ATMNIC(r1);
+		ATMNIC r2n1 = new ATMNIC(r2);
+		OtoOLink l12 = new OtoOLink(r1n2, r2n1);
+		topology.addRouter(r1);
+		Assert.assertEquals(1, topology.getDistance(1, 2));
+		Assert.assertEquals(3, topology.getDistance(2, 7));
+		
+		l12.setUp(false);
+		Assert.assertEquals(4, topology.getDistance(1, 2));
+		Assert.assertEquals(4, topology.getDistance(2, 1));
+		
+		l12.setUp(true);
+		tock();
+		comp1.setupConnection(2);
+		for(int i=0; i<6; i++)
+			this.tock();
+		for(int i = 0;i<3;i++)
+			comp1.sendPacket(1000);
+		for(int i=0; i<6; i++)
+			this.tock();
+		Assert.assertEquals(3, r2.getReassembler().getPacketsDelivered());
+	}
+	
+	/**
+	 * Builds a random network of 20 routers (a tree with a few extra links across it) and
+	 * makes 300 random changes to its links, taking them down, bringing them back up and
+	 * making them cheaper or dearer.  After each change the distances the routing keeps up
+	 * to date are checked against Bellman-Ford worked out from scratch.  Taking down a tree
+	 * link often cuts a group of routers off, and bringing it back up joins them on again.
+	 */
+	@Test
+	public void TestNet2TestRoutingRandomChanges(){
+		System.out.println("**Test Net 2: Test routing against Bellman-Ford**");
+		Random random = RandomSource.stream("routing test", 0);
+		int routerCount = 20;
+		ATMRouter[] routers = new ATMRouter[routerCount];
+		ArrayList<OtoOLink> links = new ArrayList<OtoOLink>();
+		ArrayList<int[]> ends = new ArrayList<int[]>();
+		TopologyDatabase randomTopology = new TopologyDatabase();
+		int costRises = 0, cutOff = 0, rejoined = 0;
+		int reachable = routerCount;
+		
+		for(int i=0; i<routerCount; i++)
+			routers[i] = new ATMRouter(i);
+		for(int i=1; i<routerCount + 8; i++){
+			int from = i < routerCount ? random.nextInt(i) : random.nextInt(routerCount);
+			int to = i < routerCount ? i : random.nextInt(routerCount);
+			
+			if(from == to)
+				continue;
+			links.add(new OtoOLink(new ATMNIC(routers[from]), new ATMNIC(routers[to])));
+			ends.add(new int[]{from, to});
+		}
+		for(int i=0; i<routerCount; i++)
+			randomTopology.addRouter(routers[i]);
+		
+		for(int change=0; change<300; change++){
+			OtoOLink link = links.get(random.nextInt(links.size()));
+			int nowReachable = 0;
+			
+			if(random.nextBoolean())
+				link.setUp(!link.isUp());
+			else{
+				int cost = 1 + random.nextInt(5);
+				
+				if(link.isUp() && cost > link.getCost())
+					costRises++;
+				link.setCost(cost);
+			}
+			
+			for(int from=0; from<routerCount; from++){
+				int[] distances = this.bellmanFord(from, routerCount, links, ends);
+				
+				for(int to=0; to<routerCount; to++)
+					Assert.assertEquals(distances[to], randomTopology.getDistance(from, to));
+				if(from == 0)
+					for(int to=0; to<routerCount; to++)
+						if(distances[to] >= 0)
+							nowReachable++;
+			}
+			if(nowReachable < reachable)
+				cutOff++;
+			else if(nowReachable > reachable)
+				rejoined++;
+			reachable = nowReachable;
+		}
+		//make sure the changes the incremental repair finds hardest actually happened
+		Assert.assertTrue(costRises > 0);
+		Assert.assertTrue(cutOff > 0);
+		Assert.assertTrue(rejoined > 0);
+	}
+	
+	/**
+	 * Works out the cost of the shortest path from one router to each of the others the slow
+	 * way, by relaxing every link that is up once for each router
+	 * @param from the index of the router the paths start at
+	 * @param routerCount the number of routers
+	 * @param links the links between the routers
+	 * @param ends the indexes of the routers at each end of each link
+	 * @return the cost of the shortest path to each router, or -1 if there is no path
+	 */
+	private int[] bellmanFord(int from, int routerCount, ArrayList<OtoOLink> links, ArrayList<int[]> ends){
+		int[] distances = new int[routerCount];
+		
+		Arrays.fill(distances, Integer.MAX_VALUE);
+		distances[from] = 0;
+		for(int round=0; round<routerCount; round++)
+			for(int i=0; i<links.size(); i++){
+				int a = ends.get(i)[0], b = ends.get(i)[1], cost = links.get(i).getCost();
+				
+				if(!links.get(i).isUp())
+					continue;
+				if(distances[a] != Integer.MAX_VALUE && distances[a] + cost < distances[b])
+					distances[b] = distances[a] + cost;
+				if(distances[b] != Integer.MAX_VALUE && distances[b] + cost < distances[a])
+					distances[a] = distances[b] + cost;
+			}
+		for(int i=0; i<routerCount; i++)
+			if(distances[i] == Integer.MAX_VALUE)
+				distances[i] = -1;
+		return distances;
+	}
+	
+	/**
+	 * Sets up a connection from computer 1 to router 6, then slows the link from router 1 to
+	 * router 3 down to one cell per time unit with a propagation delay of 3 time units.  A burst
+	 * of 9 cells queues up at router 1, and the cells get to router 3 one per time unit, 3 time
+	 * units after they were sent.  Router 1 also has a spare nic with no link, which has to
+	 * step like any other.
+	 */
+	@Test
+	public void TestNet2TestLinkCapacityDelay(){
+		System.out.println("**Test Net 2: Test link capacity and delay**");
+		new ATMNIC(r1);
+		tock();
+		int call = comp1.setupConnection(6);
+		for(int i=0; i<10; i++)
+			this.tock();
+		l13.setCapacity(1);
+		l13.setDelay(3);
+		
+		for(int i = 0;i<3;i++)
+			comp1.sendPacket(call, 1000);
+		long[] received = new long[16];
+		for(int i=0; i<received.length; i++){
+			this.tock();
+			received[i] = r3.getDataCellsReceived();
+		}
+		//the cells get to router 1 on the first tick, and leave it from the second
+		Assert.assertEquals(9, r1.getDataCellsReceived());
+		for(int i=0; i<4; i++)
+			Assert.assertEquals(0, received[i]);
+		for(int i=4; i<13; i++)
+			Assert.assertEquals(i - 3, received[i]);
+		Assert.assertEquals(9, received[15]);
+		
+		//the data buffer at router 1 held the whole burst, then drained a cell at a time
+		long[] occupancy = r1n3.getMetrics().getOccupancyHistogram();
+		for(int cells=1; cells<=9; cells++)
+			Assert.assertEquals(1, occupancy[cells]);
+		Assert.assertEquals(0, occupancy[10]);
+		Assert.assertEquals(3, r6.getReassembler().getPacketsDelivered());
+	}
+	
+	/**
+	 * Has computer 1 set up three connections at once, two to router 6 and one to router 7,
+	 * and send a packet on each by its call handle.  Then ends one of them.
+	 */
+	@Test
+	public void TestNet2TestManyConnections(){
+		System.out.println("**Test Net 2: Test many connections from one computer**");
+		tock();
+		int to6a = comp1.setupConnection(6);
+		int to6b = comp1.setupConnection(6);
+		int to7 = comp1.setupConnection(7);
+		for(int i=0; i<10; i++)
+			this.tock();
+		Assert.assertEquals(3, comp1.getConnectionCount());
+		Assert.assertTrue(comp1.getConnectionVC(to6a) >= 0);
+		Assert.assertTrue(comp1.getConnectionVC(to6b) >= 0);
+		Assert.assertTrue(comp1.getConnectionVC(to6a) != comp1.getConnectionVC(to6b));
+		
+		comp1.sendPacket(to6a, 1000);
+		comp1.sendPacket(to6b, 1000);
+		comp1.sendPacket(to7, 1000);
+		for(int i=0; i<10; i++)
+			this.tock();
+		Assert.assertEquals(2, r6.getReassembler().getPacketsDelivered());
+		Assert.assertEquals(1, r7.getReassembler().getPacketsDelivered());
+		
+		comp1.endConnection(to6b);
+		for(int i=0; i<10; i++)
+			this.tock();
+		Assert.assertEquals(2, comp1.getConnectionCount());
+		Assert.assertEquals(-1, comp1.getConnectionVC(to6b));
+		comp1.sendPacket(to6a, 1000);
+		for(int i=0; i<10; i++)
+			this.tock();
+		Assert.assertEquals(3, r6.getReassembler().getPacketsDelivered());
+	}
+	
+	/**
+	 * Sets up a connection from computer 1 to router 6 and adds router 7 to it as a second
+	 * party.  The connection branches at router 5, so every packet sent reaches both routers.
+	 * Then drops router 7 again, which leaves only router 6 on the connection.
+	 */
+	@Test
+	public void TestNet2TestPointToMultipoint(){
+		System.out.println("**Test Net 2: Test point to multipoint connections**");
+		tock();
+		int call = comp1.setupConnection(6);
+		for(int i=0; i<10; i++)
+			this.tock();
+		comp1.addParty(call, 7);
+		for(int i=0; i<10; i++)
+			this.tock();
+		Assert.assertEquals(2, comp1.getPartyCount(call));
+		
+		for(int i = 0;i<3;i++)
+			comp1.sendPacket(call, 1000);
+		for(int i=0; i<10; i++)
+			this.tock();
+		Assert.assertEquals(3, r6.getReassembler().getPacketsDelivered());
+		Assert.assertEquals(3, r7.getReassembler().getPacketsDelivered());
+		
+		comp1.dropParty(call, 7);
+		for(int i=0; i<10; i++)
+			this.tock();
+		Assert.assertEquals(1, comp1.getPartyCount(call));
+		comp1.sendPacket(call, 1000);
+		for(int i=0; i<10; i++)
+			this.tock();
+		Assert.assertEquals(4, r6.getReassembler().getPacketsDelivered());
+		Assert.assertEquals(3, r7.getReassembler().getPacketsDelivered());
+	}
+	
+	/**
+	 * Sets up a connection from computer 1 to router 6, adds router 7 and then drops both
+	 * parties, router 6 (the connection's original branch) first.  Data should still get to
+	 * router 7 after router 6 is dropped, and once router 7 is dropped too the network should
+	 * release the connection back to computer 1 and give back its bandwidth.
+	 */
+	@Test
+	public void TestNet2TestDropAllParties(){
+		System.out.println("**Test Net 2: Test dropping every party**");
+		tock();
+		int call = comp1.setupConnection(6, new TrafficDescriptor(1));
+		for(int i=0; i<10; i++)
+			this.tock();
+		comp1.addParty(call, 7);
+		for(int i=0; i<10; i++)
+			this.tock();
+		Assert.assertEquals(2, comp1.getPartyCount(call));
+		Assert.assertEquals(1.0, r1n3.getCommittedBandwidth(), 1e-9);
+		
+		comp1.dropParty(call, 6);
+		for(int i=0; i<10; i++)
+			this.tock();
+		comp1.sendPacket(call, 1000);
+		for(int i=0; i<10; i++)
+			this.tock();
+		Assert.assertEquals(0, r6.getReassembler().getPacketsDelivered());
+		Assert.assertEquals(1, r7.getReassembler().getPacketsDelivered());
+		
+		comp1.dropParty(call, 7);
+		for(int i=0; i<10; i++)
+			this.tock();
+		Assert.assertEquals(-1, comp1.getConnectionVC(call));
+		Assert.assertEquals(0, comp1.getConnectionCount());
+		Assert.assertSame(ReleaseCause.NORMAL_CLEARING, comp1.getLastReleaseCause());
+		Assert.assertEquals(0.0, r1n3.getCommittedBandwidth(), 1e-9);
+	}
+	
+	/**
+	 * Turns on OAM monitoring and sets up a connection from computer 1 to router 6, through
+	 * routers 3 and 5.  The connection is left idle, and the continuity checks keep it up.
+	 * Then the link between routers 3 and 5 is cut: router 3 stops getting its loopbacks back
+	 * and releases the connection back to computer 1, and router 5 stops getting cells and
+	 * ends it towards router 6.
+	 */
+	@Test
+	public void TestNet2TestOAMFailure(){
+		System.out.println("**Test Net 2: Test OAM failure detection**");
+		ATMRouter[] routers = {r1,r2,r3,r4,r5,r6,r7};
+		for(ATMRouter router : routers)
+			router.setOAMMonitoring(2, 8);
+		tock();
+		int call = comp1.setupConnection(6);
+		for(int i=0; i<10; i++)
+			this.tock();
+		comp1.sendLoopback(call);
+		for(int i=0; i<30; i++)
+			this.tock();
+		Assert.assertTrue(comp1.getConnectionVC(call) >= 0);
+		Assert.assertEquals(1, comp1.getLoopbacksReturned(call));
+		comp1.sendPacket(call, 1000);
+		for(int i=0; i<10; i++)
+			this.tock();
+		Assert.assertEquals(1, r6.getReassembler().getPacketsDelivered());
+		
+		l35.setUp(false);
+		for(int i=0; i<20; i++)
+			this.tock();
+		Assert.assertEquals(1, r3.getConnectionsFailed());
+		Assert.assertEquals(1, r5.getConnectionsFailed());
+		Assert.assertEquals(0, r6.getConnectionsFailed());
+		Assert.assertEquals(0, comp1.getConnectionCount());
+	}
+	
+	/**
+	 * Turns on OAM monitoring at router 3 only and leaves a connection from computer 1 to
+	 * router 6 idle.  Router 1 sends no continuity checks, so router 3 mustn't time the
+	 * connection out, while router 5 still loops back router 3's loopbacks.
+	 */
+	@Test
+	public void TestNet2TestOAMPartialMonitoring(){
+		System.out.println("**Test Net 2: Test OAM monitoring at one router**");
+		r3.setOAMMonitoring(2, 8);
+		tock();
+		int call = comp1.setupConnection(6);
+		for(int i=0; i<40; i++)
+			this.tock();
+		Assert.assertTrue(comp1.getConnectionVC(call) >= 0);
+		Assert.assertEquals(0, r3.getConnectionsFailed());
+		comp1.sendPacket(call, 1000);
+		for(int i=0; i<10; i++)
+			this.tock();
+		Assert.assertEquals(1, r6.getReassembler().getPacketsDelivered());
+	}
+	
+	/**
+	 * Provisions a virtual path from router 1 to router 6, through routers 3 and 5, and sets
+	 * up a connection from computer 1 to router 6.  The setup goes down the path, so routers
+	 * 3 and 5 never see any signaling, and the data cells cross them on the VPI alone.
+	 */
+	@Test
+	public void TestNet2TestVirtualPath(){
+		System.out.println("**Test Net 2: Test virtual paths**");
+		VirtualPathNIC vp = topology.setupVP(r1, r6, new TrafficDescriptor(100));
+		Assert.assertNotNull(vp);
+		Assert.assertSame(vp, r1.getVirtualPath(6));
+		Assert.assertNotNull(r6.getVirtualPath(1));
+		
+		tock();
+		comp1.setupConnection(6);
+		for(int i=0; i<10; i++)
+			this.tock();
+		for(int i = 0;i<3;i++)
+			comp1.sendPacket(1000);
+		for(int i=0; i<10; i++)
+			this.tock();
+		Assert.assertEquals(3, r6.getReassembler().getPacketsDelivered());
+		Assert.assertEquals(0, r3.getOAMCellsReceived());
+		Assert.assertEquals(0, r5.getOAMCellsReceived());
+		Assert.assertEquals(0, r5.getDataCellsReceived());
+		Assert.assertTrue(r5.getCellsVPSwitched() > 0);
+	}
+	
+	/**
+	 * Source routes two CBR connections from router 2 to router 6 at the same time, when
+	 * the link from 4 to 5 only has room for one of them.  Both setups are sent down the
+	 * short path through 4, the second is cranked back from 4 and router 2 sends it the
+	 * long way round through a new link to router 1.  Both connections should get through.
+	 */
+	@Test
+	public void TestNet2TestCrankback(){
+		System.out.println("**Test Net 2: Test crankback**");
+		ATMNIC r1n2 = new ATMNIC(r1);
+		ATMNIC r2n1 = new ATMNIC(r2);
+		new OtoOLink(r1n2, r2n1);
+		topology.addRouter(r2);
+		l45.setCapacity(1);
+		r2.setSourceRouting(true);
+		
+		tock();
+		comp2.setupConnection(6, new TrafficDescriptor(1));
+		comp3.setupConnection(6, new TrafficDescriptor(1));
+		for(int i=0; i<16; i++)
+			this.tock();
+		comp2.sendPacket(1000);
+		comp3.sendPacket(1000);
+		for(int i=0; i<12; i++)
+			this.tock();
+		System.out.println("Router 6 " + r6.getReassembler());
+		Assert.assertEquals(2, r6.getReassembler().getPacketsDelivered());
+	}
+	
+	/**
+	 * Slows the link from router 1 to router 3 to 3 time units and has computer 1 set up a
+	 * CBR connection to router 6.  The link goes down while the setup is crossing it, so the
+	 * connect coming back is lost.  Router 1's setup timer should run out and give back the
+	 * bandwidth it reserved on the link, and release the setup to computer 1.
+	 */
+	@Test
+	public void TestNet2TestSetupTimeout(){
+		System.out.println("**Test Net 2: Test setup timer**");
+		l13.setDelay(3);
+		tock();
+		int call = comp1.setupConnection(6, new TrafficDescriptor(1));
+		tock();
+		tock();
+		Assert.assertEquals(1.0, r1n3.getCommittedBandwidth(), 1e-9);
+		l13.setUp(false);
+		for(int i=0; i<200; i++)
+			this.tock();
+		l13.setUp(true);
+		for(int i=0; i<10; i++)
+			this.tock();
+		Assert.assertEquals(-1, comp1.getConnectionVC(call));
+		Assert.assertEquals(0, comp1.getConnectionCount());
+		Assert.assertSame(ReleaseCause.TIMER_EXPIRY, comp1.getLastReleaseCause());
+		Assert.assertEquals(0.0, r1n3.getCommittedBandwidth(), 1e-9);
+	}
+	
+	/**
+	 * Has router 2 source route setups it can't find a path for.  With the link from router 4
+	 * to router 5 down, router 6 can't be reached at all and the setup is released with
+	 * NO_ROUTE.  With the link back up but only one cell per time unit, a setup asking for two
+	 * can't fit and is released with CELL_RATE_UNAVAILABLE.
+	 */
+	@Test
+	public void TestNet2TestSourceRouteRelease(){
+		System.out.println("**Test Net 2: Test source routed release causes**");
+		r2.setSourceRouting(true);
+		
+		l45.setUp(false);
+		tock();
+		int unreachable = comp2.setupConnection(6);
+		for(int i=0; i<6; i++)
+			this.tock();
+		Assert.assertEquals(-1, comp2.getConnectionVC(unreachable));
+		Assert.assertSame(ReleaseCause.NO_ROUTE, comp2.getLastReleaseCause());
+		
+		l45.setUp(true);
+		l45.setCapacity(1);
+		tock();
+		int tooFast = comp2.setupConnection(6, new TrafficDescriptor(2));
+		for(int i=0; i<6; i++)
+			this.tock();
+		Assert.assertEquals(-1, comp2.getConnectionVC(tooFast));
+		Assert.assertSame(ReleaseCause.CELL_RATE_UNAVAILABLE, comp2.getLastReleaseCause());
+		Assert.assertEquals(0, comp2.getConnectionCount());
+	}
+	
+	/**
+	 * Sets up a CBR connection and a UBR one from computer 1 to router 6, then slows the link
+	 * from router 1 to router 3 down to one cell per time unit.  A burst of 6 UBR packets is
+	 * sent, then one CBR cell.  The CBR cell is scheduled ahead of the UBR cells queued in
+	 * front of it, so it gets to router 6 long before the burst does.
+	 */
+	@Test
+	public void TestNet2TestCBRNotStarved(){
+		System.out.println("**Test Net 2: Test CBR isn't starved by a UBR burst**");
+		tock();
+		int cbr = comp1.setupConnection(6, new TrafficDescriptor(1));
+		int ubr = comp1.setupConnection(6);
+		for(int i=0; i<12; i++)
+			this.tock();
+		l13.setCapacity(1);
+		
+		for(int i=0; i<6; i++)
+			comp1.sendPacket(ubr, 1000);
+		comp1.sendPacket(cbr, 200);
+		for(int i=0; i<4; i++)
+			this.tock();
+		//the CBR cell was sent last but is the first thing to arrive
+		Assert.assertEquals(1, r6.getReassembler().getPacketsDelivered());
+		Assert.assertEquals(200, r6.getReassembler().getBitsDelivered());
+		for(int i=0; i<26; i++)
+			this.tock();
+		Assert.assertEquals(7, r6.getReassembler().getPacketsDelivered());
+		Assert.assertEquals(6200, r6.getReassembler().getBitsDelivered());
+	}
+	
+	/**
+	 * Limits the link from router 1 to router 3 to 4 cells per time unit and checks the
+	 * equivalent bandwidth of VBR connections on it.  Then sets up an rt-VBR connection and
+	 * a CBR one that doesn't fit beside it, which is refused, and an nrt-VBR one that does.
+	 * Last, sets up a connection router 1 has a route for but router 3 doesn't: router 3
+	 * releases it and router 1 gets its bandwidth back.
+	 */
+	@Test
+	public void TestNet2TestAdmissionControl(){
+		System.out.println("**Test Net 2: Test connection admission control**");
+		l13.setCapacity(4);
+		TrafficDescriptor rtVBR = new TrafficDescriptor(ServiceCategory.RT_VBR, 4, 1, 5);
+		TrafficDescriptor nrtVBR = new TrafficDescriptor(ServiceCategory.NRT_VBR, 2, 1, 10);
+		//the buffer is 20 cells, rt-VBR only gets half of it
+		Assert.assertEquals(2.5, r1n3.getEquivalentBandwidth(rtVBR), 1e-9);
+		Assert.assertEquals(1.5, r1n3.getEquivalentBandwidth(nrtVBR), 1e-9);
+		Assert.assertEquals(4, r1n3.getEquivalentBandwidth(new TrafficDescriptor(ServiceCategory.NRT_VBR, 4, 1, 40)), 1e-9);
+		Assert.assertEquals(0, r1n3.getEquivalentBandwidth(TrafficDescriptor.BEST_EFFORT), 1e-9);
+		
+		tock();
+		int rt = comp1.setupConnection(6, rtVBR);
+		int cbr = comp1.setupConnection(6, new TrafficDescriptor(2));
+		for(int i=0; i<12; i++)
+			this.tock();
+		Assert.assertTrue(comp1.getConnectionVC(rt) >= 0);
+		Assert.assertEquals(-1, comp1.getConnectionVC(cbr));
+		Assert.assertEquals(1, comp1.getConnectionCount());
+		Assert.assertEquals(2.5, r1n3.getCommittedBandwidth(), 1e-9);
+		
+		int nrt = comp1.setupConnection(6, nrtVBR);
+		for(int i=0; i<12; i++)
+			this.tock();
+		Assert.assertTrue(comp1.getConnectionVC(nrt) >= 0);
+		Assert.assertEquals(4, r1n3.getCommittedBandwidth(), 1e-9);
+		
+		comp1.endConnection(nrt);
+		r1.addNextHopInterface(42, r1n3);
+		int lost = comp1.setupConnection(42, new TrafficDescriptor(1));
+		for(int i=0; i<12; i++)
+			this.tock();
+		Assert.assertEquals(-1, comp1.getConnectionVC(lost));
+		Assert.assertEquals(1, comp1.getConnectionCount());
+		Assert.assertEquals(2.5, r1n3.getCommittedBandwidth(), 1e-9);
+	}
+	
+	/**
+	 * Sets up a CBR connection at half a cell per time unit, then sends 9 cells
+	 * at once.  Router 1 should pass the first cell and tag the other 8, which still
+	 * get through because nothing else is using the network.
+	 */
+	@Test
+	public void TestNet2TestPolicing(){
+		System.out.println("**Test Net 2: Test policing**");
+		tock();
+		comp1.setupConnection(5, new TrafficDescriptor(0.5));
+		for(int i=0; i<12; i++)
+			this.tock();
+		for(int i = 0;i<3;i++)
+			comp1.sendPacket(1000);
+		for(int i=0; i<6; i++)
+			this.tock();
+		System.out.println("Router 1 policer: " + r1ncomp1.getPolicer());
+		Assert.assertEquals(1, r1ncomp1.getPolicer().getCellsConforming());
+		Assert.assertEquals(8, r1ncomp1.getPolicer().getCellsTagged());
+		Assert.assertEquals(3, r5.getReassembler().getPacketsDelivered());
+	}
+	
 	/**
 	 * A test to make sure tail drop works in this second network.
 	 * Overloads comp1's NIC to see if the packets exceeding the threshold
@@ -278,6 +961,16 @@ public class TestNet2 {
 		for(int i = 0; i<25; i++)
 			comp1.sendPacket(5);
 		
+		//20 cells went out on the tick, so the second burst found 10 free places and lost 15
+		PortMetrics metrics = comp1nr1.getMetrics();
+		Assert.assertEquals(55, metrics.getDataCells());
+		Assert.assertEquals(15, metrics.getDataDrops());
+		Assert.assertEquals(15, metrics.getDrops(1));
+		Assert.assertEquals(15.0 / 55, metrics.getCellLossRatio(1), 1e-9);
+		Assert.assertEquals(40, metrics.getPacketsForwarded());
+		Assert.assertEquals(15, metrics.getPacketsLost());
+		Assert.assertEquals(200, metrics.getBitsForwarded());
+		Assert.assertEquals(1, metrics.getOccupancyHistogram()[20]);
 	}
 	
 	/**
@@ -304,6 +997,18 @@ public class TestNet2 {
 		}
 		tock();
 		tock();//5 packets should be dropped by router 5.
+		
+		//router 5's port to router 7 was full of comp1's cells, so all of comp4's were lost
+		PortMetrics metrics = r5n7.getMetrics();
+		Assert.assertEquals(25, metrics.getDataCells());
+		Assert.assertEquals(5, metrics.getDataDrops());
+		Assert.assertEquals(0, metrics.getDrops(1));
+		Assert.assertEquals(5, metrics.getDrops(2));
+		Assert.assertEquals(0.0, metrics.getCellLossRatio(1), 1e-9);
+		Assert.assertEquals(1.0, metrics.getCellLossRatio(2), 1e-9);
+		Assert.assertEquals(20, metrics.getPacketsForwarded());
+		Assert.assertEquals(5, metrics.getPacketsLost());
+		Assert.assertEquals(100, metrics.getBitsForwarded());
 	}
 	
 	/**
@@ -381,6 +1086,14 @@ public class TestNet2 {
 			tock();
 		}
 		comp1.sendPacket(20000);
+		
+		//the first 20 cells filled the buffer and PPD threw away the rest of the packet
+		PortMetrics metrics = comp1nr1.getMetrics();
+		Assert.assertEquals(53, metrics.getDataCells());
+		Assert.assertEquals(33, metrics.getDrops(1));
+		Assert.assertEquals(33.0 / 53, metrics.getCellLossRatio(1), 1e-9);
+		Assert.assertEquals(0, metrics.getPacketsForwarded());
+		Assert.assertEquals(1, metrics.getPacketsLost());
 	}
 	
 	/**
@@ -409,6 +1122,16 @@ public class TestNet2 {
 		comp4.sendPacket(6000);//Make sure once first cell is dropped, no more get through.
 		tock();
 		tock();
+		
+		//router 5 dropped all of comp4's packet but the cell that ends it
+		PortMetrics metrics = r5n7.getMetrics();
+		Assert.assertEquals(0, metrics.getDrops(1));
+		Assert.assertEquals(16, metrics.getCells(2));
+		Assert.assertEquals(15, metrics.getDrops(2));
+		Assert.assertEquals(15.0 / 16, metrics.getCellLossRatio(2), 1e-9);
+		Assert.assertEquals(19, metrics.getPacketsForwarded());
+		Assert.assertEquals(1, metrics.getPacketsLost());
+		Assert.assertEquals(95, metrics.getBitsForwarded());
 	}
 	
 	/**
@@ -424,6 +1147,12 @@ public class TestNet2 {
 			tock();
 		}
 		comp1.sendPacket(20000); //This packet should (with high p) get entirely dropped.
+		
+		PortMetrics metrics = comp1nr1.getMetrics();
+		Assert.assertEquals(53, metrics.getDrops(1));
+		Assert.assertEquals(1.0, metrics.getCellLossRatio(1), 1e-9);
+		Assert.assertEquals(1, metrics.getPacketsLost());
+		Assert.assertEquals(0, metrics.getOccupancyHistogram()[20]);
 	}
 	
 	/**
@@ -452,6 +1181,17 @@ public class TestNet2 {
 		comp4.sendPacket(12000);//Make sure once first cell is dropped, no more get through.
 		tock();
 		tock();
+		
+		//EPD threw away comp4's whole packet at its own nic, so router 5 never saw it
+		PortMetrics metrics = comp4nr6.getMetrics();
+		Assert.assertEquals(32, metrics.getDrops(1));
+		Assert.assertEquals(1.0, metrics.getCellLossRatio(1), 1e-9);
+		Assert.assertEquals(0, metrics.getPacketsForwarded());
+		Assert.assertEquals(1, metrics.getPacketsLost());
+		Assert.assertEquals(15, comp1nr1.getMetrics().getDrops(1));
+		Assert.assertEquals(15, comp1nr1.getMetrics().getPacketsLost());
+		Assert.assertEquals(0, r5n7.getMetrics().getDataDrops());
+		Assert.assertEquals(15, r5n7.getMetrics().getPacketsForwarded());
 	}
 
 }